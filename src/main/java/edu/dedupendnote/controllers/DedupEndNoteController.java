@@ -3,13 +3,18 @@ package edu.dedupendnote.controllers;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
@@ -17,6 +22,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -27,7 +33,9 @@ import org.springframework.web.multipart.MultipartFile;
 import edu.dedupendnote.domain.DeduplicationMode;
 import edu.dedupendnote.domain.StompMessage;
 import edu.dedupendnote.services.DeduplicationService;
+import edu.dedupendnote.services.UploadTooLargeException;
 import edu.dedupendnote.services.UtilitiesService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import lombok.extern.slf4j.Slf4j;
@@ -40,6 +48,10 @@ public class DedupEndNoteController {
 	@Value("${upload-dir}")
 	private String uploadDir;
 
+	@SuppressWarnings("NullAway.Init")
+	@Value("${spring.servlet.multipart.max-file-size:150MB}")
+	private DataSize maxFileSize;
+
 	private final DeduplicationService deduplicationService;
 	private final SimpMessagingTemplate simpMessagingTemplate;
 
@@ -59,6 +71,7 @@ public class DedupEndNoteController {
 	 *   See a.o. https://stackoverflow.com/questions/54946096/spring-boot-websocket-how-do-i-know-when-a-client-has-unsubscribed/54948213
 	 *   Is StructuredTaskScope (java 21) a solution?
 	 * - files are uploaded with AJAX (uploadFile)
+	 *   or uploaded and deduplicated in 1 request (uploadAndStartOneFile, not used by the web pages)
 	 * - deduplication is started with AJAX (startOneFile|StartTwoFiles) which calls the DeduplicationService.
 	 * - the DeduplicationService uses Web Sockets to report progress to the browser.
 	 *
@@ -73,18 +86,79 @@ public class DedupEndNoteController {
 	 */
 	// @formatter:on
 
+	/*
+	 * In BOTH mode (bothModesResultFile) the deduplicated file and the marked file are returned in 1 ZIP file.
+	 * Otherwise the RIS file is sent gzip encoded if the browser accepts it (the browser decompresses it).
+	 */
 	@PostMapping(value = "/getResultFile", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
 	public void getResultFile(@RequestParam("fileNameResultFile") String fileName,
-			@RequestParam("markModeResultFile") boolean markMode, HttpServletResponse response) {
-		DeduplicationMode mode = DeduplicationMode.from(markMode);
+			@RequestParam("markModeResultFile") boolean markMode,
+			@RequestParam(name = "bothModesResultFile", required = false, defaultValue = "false") boolean bothModes,
+			HttpServletRequest request, HttpServletResponse response) {
+		DeduplicationMode mode = DeduplicationMode.from(markMode, bothModes);
+		if (mode == DeduplicationMode.BOTH) {
+			getResultZipFile(fileName, response);
+			return;
+		}
 		String outputFileName = UtilitiesService.createOutputFileName(fileName, mode);
 
 		Path path = Path.of(uploadDir, outputFileName);
+		boolean gzipEncoded = acceptsGzip(request);
 		response.setContentType("text/plain");
 		response.addHeader("Content-Disposition", "attachment; filename=\"" + outputFileName + "\"");
-		try {
-			Files.copy(path, response.getOutputStream());
-			response.getOutputStream().flush();
+		response.addHeader("Vary", "Accept-Encoding");
+		if (gzipEncoded) {
+			response.addHeader("Content-Encoding", "gzip");
+		}
+		// closing the GZIPOutputStream ends its Deflater (native memory) and closes the response stream
+		try (OutputStream outputStream = gzipEncoded ? new GZIPOutputStream(response.getOutputStream(), 1 << 16)
+				: response.getOutputStream()) {
+			Files.copy(path, outputStream);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/*
+	 * Accept-Encoding is a list of codings with an optional q-value, e.g. "gzip;q=0.8, br". "gzip;q=0" refuses gzip.
+	 */
+	private static boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			if (!parts[0].trim().equalsIgnoreCase("gzip")) {
+				continue;
+			}
+			double q = 1.0;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim().toLowerCase();
+				if (parameter.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(parameter.substring(2));
+					} catch (NumberFormatException e) {
+						q = 0.0;
+					}
+				}
+			}
+			return q > 0.0;
+		}
+		return false;
+	}
+
+	private void getResultZipFile(String fileName, HttpServletResponse response) {
+		String zipFileName = UtilitiesService.createZipFileName(fileName);
+		response.setContentType("application/zip");
+		response.addHeader("Content-Disposition", "attachment; filename=\"" + zipFileName + "\"");
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(response.getOutputStream())) {
+			for (DeduplicationMode mode : List.of(DeduplicationMode.REMOVE, DeduplicationMode.MARK)) {
+				String outputFileName = UtilitiesService.createOutputFileName(fileName, mode);
+				zipOutputStream.putNextEntry(new ZipEntry(outputFileName));
+				Files.copy(Path.of(uploadDir, outputFileName), zipOutputStream);
+				zipOutputStream.closeEntry();
+			}
 		} catch (IOException ex) {
 			ex.printStackTrace();
 		}
@@ -114,11 +188,12 @@ public class DedupEndNoteController {
 	 */
 	@PostMapping(value = "/startOneFile", produces = "application/json")
 	public ResponseEntity<String> startOneFile(@RequestParam("fileName_1") String inputFileName,
-			@RequestParam(required = false, defaultValue = "false") boolean markMode, @RequestParam String wssessionId)
+			@RequestParam(required = false, defaultValue = "false") boolean markMode,
+			@RequestParam(required = false, defaultValue = "false") boolean bothModes, @RequestParam String wssessionId)
 			throws Exception {
-		DeduplicationMode mode = DeduplicationMode.from(markMode);
+		DeduplicationMode mode = DeduplicationMode.from(markMode, bothModes);
 		String outputFileName = UtilitiesService.createOutputFileName(inputFileName, mode);
-		String logPrefix = "1F" + (mode == DeduplicationMode.MARK ? "M" : "D");
+		String logPrefix = "1F" + logSuffix(mode);
 
 		Consumer<String> progressReporter = message -> simpMessagingTemplate
 				.convertAndSend("/topic/messages-" + wssessionId, new StompMessage(message));
@@ -134,12 +209,69 @@ public class DedupEndNoteController {
 		}
 	}
 
+	// @formatter:off
+	/*
+	 * Upload and deduplication in 1 request: the body of the request is the RIS file itself (not multipart/form-data),
+	 * the other parameters are in the query string:
+	 * 		POST /uploadAndStartOneFile?fileName=x.ris&markMode=false&bothModes=false&wssessionId=...
+	 * The body is parsed while it arrives (DeduplicationService::deduplicateUpload) and saved as the uploaded file
+	 * (uploadFile), so that the result file can be fetched with getResultFile.
+	 * A multipart upload (uploadFile) is only passed to the controller after the whole file has been received.
+	 */
+	// @formatter:on
+	@PostMapping(value = "/uploadAndStartOneFile", produces = "application/json")
+	public ResponseEntity<String> uploadAndStartOneFile(@RequestParam String fileName,
+			@RequestParam(required = false, defaultValue = "false") boolean markMode,
+			@RequestParam(required = false, defaultValue = "false") boolean bothModes, @RequestParam String wssessionId,
+			HttpServletRequest request) throws InterruptedException, ExecutionException {
+		long contentLength = request.getContentLengthLong();
+		if (contentLength == 0) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+					.body("{ \"result\": \"Failed to upload " + fileName + " because it was empty" + "\"}");
+		}
+		if (contentLength > maxFileSize.toBytes()) {
+			return uploadTooLarge(fileName);
+		}
+		// no directories in the file name
+		String inputFileName = Path.of(fileName).getFileName().toString();
+		DeduplicationMode mode = DeduplicationMode.from(markMode, bothModes);
+		String outputFileName = UtilitiesService.createOutputFileName(inputFileName, mode);
+		String logPrefix = "1U" + logSuffix(mode);
+
+		Consumer<String> progressReporter = message -> simpMessagingTemplate
+				.convertAndSend("/topic/messages-" + wssessionId, new StompMessage(message));
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			RequestAttributes requestAttributes = RequestContextHolder.currentRequestAttributes();
+			Future<String> future = executor.submit(() -> {
+				RequestContextHolder.setRequestAttributes(requestAttributes);
+				return deduplicationService.deduplicateUpload(request.getInputStream(), contentLength,
+						maxFileSize.toBytes(), uploadDir + File.separator + inputFileName,
+						uploadDir + File.separator + outputFileName, mode, progressReporter);
+			});
+			log.info("Writing to result: {}: {}", logPrefix, future.get());
+			return ResponseEntity.ok("{ \"result\": " + future.get());
+		} catch (ExecutionException e) {
+			// a request without Content-Length (chunked) is only found to be too large while it is read
+			if (e.getCause() instanceof UploadTooLargeException) {
+				return uploadTooLarge(fileName);
+			}
+			throw e;
+		}
+	}
+
+	private ResponseEntity<String> uploadTooLarge(String fileName) {
+		return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+				.body("{ \"result\": \"Failed to upload " + fileName + " because it is larger than " + maxFileSize
+						+ "\"}");
+	}
+
 	@PostMapping(value = "/startTwoFiles", produces = "application/json")
 	public ResponseEntity<String> startTwoFiles(@RequestParam String oldFile, @RequestParam String newFile,
-			@RequestParam(required = false, defaultValue = "false") boolean markMode, @RequestParam String wssessionId)
+			@RequestParam(required = false, defaultValue = "false") boolean markMode,
+			@RequestParam(required = false, defaultValue = "false") boolean bothModes, @RequestParam String wssessionId)
 			throws InterruptedException, ExecutionException {
-		DeduplicationMode mode = DeduplicationMode.from(markMode);
-		String logPrefix = "2F" + (mode == DeduplicationMode.MARK ? "M" : "D");
+		DeduplicationMode mode = DeduplicationMode.from(markMode, bothModes);
+		String logPrefix = "2F" + logSuffix(mode);
 
 		Consumer<String> progressReporter = message -> simpMessagingTemplate
 				.convertAndSend("/topic/messages-" + wssessionId, new StompMessage(message));
@@ -157,6 +289,14 @@ public class DedupEndNoteController {
 		}
 	}
 
+	private static String logSuffix(DeduplicationMode mode) {
+		return switch (mode) {
+		case REMOVE -> "D";
+		case MARK -> "M";
+		case BOTH -> "B";
+		};
+	}
+
 	@GetMapping("/test_results_details")
 	public String testResultsDetails(HttpSession session) {
 		return "test_results_details";
@@ -1,6 +1,7 @@
 package edu.dedupendnote.domain;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -9,7 +10,12 @@ import java.util.Set;
 
 import org.jspecify.annotations.Nullable;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 /*
@@ -21,6 +27,10 @@ import lombok.extern.slf4j.Slf4j;
 @Data
 public class BibliographicItem {
 
+	public static final int NO_CLUSTER = 0;
+
+	private static final SequencedSet<String> NO_TITLES = Collections.unmodifiableSequencedSet(new LinkedHashSet<>());
+
 	private List<String> allAuthors = new ArrayList<>();
 
 	protected List<String> authors = new ArrayList<>();
@@ -44,13 +54,27 @@ public class BibliographicItem {
 	private Set<String> journals = new HashSet<>();
 
 	/*
-	 * The label field is used internally to mark the duplicate lists: the label of all duplicate bibliographicItems in a set receive the ID
-	 * of the first bibliographicItem of this list. If a bibliographicItem has no duplicates, the label is not set. 
-	 * It is NOT the content of the Label (EndNote field LB) of the EndNote input file. 
-	 * If markMode is set, this field is exported. The original content of the Label field in the EndNote export file is overwritten in this case!
+	 * The results of JournalsNormalizationService::normalizeInputJournals which have not been added to journals yet.
+	 * These unmodifiable Sets are shared between the bibliographicItems with the same journal field content (see
+	 * NormalizationCache). They are added to journals (in the order in which they were read) only when journals is
+	 * used (getJournals()): mostly in the last step of the comparison (JournalComparisonService), which most pairs of
+	 * bibliographicItems never reach.
 	 */
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@EqualsAndHashCode.Exclude
+	@ToString.Exclude
 	@Nullable
-	private String label;
+	private List<Set<String>> pendingJournals;
+
+	/*
+	 * The clusterId is used internally to mark the duplicate lists: the clusterId of all duplicate bibliographicItems in a set receive the ID
+	 * of the first bibliographicItem of this list. If a bibliographicItem has no duplicates, the clusterId is NO_CLUSTER (0: EndNote IDs start at 1).
+	 * The clusterId is negative when the first bibliographicItem is from the OLD file (the IDs of the OLD file are negated).
+	 * It is NOT the content of the Label (EndNote field LB) of the EndNote input file. 
+	 * If markMode is set, this field is exported (as String, only when writing). The original content of the Label field in the EndNote export file is overwritten in this case!
+	 */
+	private int clusterId = NO_CLUSTER;
 
 	/*
 	 * Used for replacing the input pages field in the output file (except for markMode).
@@ -74,7 +98,7 @@ public class BibliographicItem {
 	private String title; // only set for Reply-titles
 
 	/*
-	 * In DeduplicationService::enrich we need the first added title (split title parts are not-first). 
+	 * In DuplicateListEnrichment we need the first added title (split title parts are not-first). 
 	 * Therefore a SequencedSet and a LinkedHashSet
 	 */
 	private SequencedSet<String> titles = new LinkedHashSet<>();
@@ -98,8 +122,121 @@ public class BibliographicItem {
 	 * Publications which are replies need special treatment. See the Pattern in the {@link IOService.replyPattern} 
 	 * - bibliographicItem pairs where one of them is isReply == true, aren't compared for title (always true)
 	 * - journals are compared stricter (JournalThresholds.DEFAULT.reply() > JournalThresholds.DEFAULT.noReply())
-	 * - in enrich() the longest title of a duplicate set is used
+	 * - in DuplicateListEnrichment the longest title of a duplicate set is used
 	 */
 	private boolean isReply = false;
 	public boolean isSeveralPages;
+
+	public boolean hasCluster() {
+		return clusterId != NO_CLUSTER;
+	}
+
+	/*
+	 * When comparing 2 files: the first bibliographicItem of the duplicate list is from the OLD file
+	 */
+	public boolean isInOldFileCluster() {
+		return clusterId < 0;
+	}
+
+	public Set<String> getJournals() {
+		if (pendingJournals != null) {
+			Set<String> merged = new HashSet<>(journals);
+			for (Set<String> normalizedJournals : pendingJournals) {
+				merged.addAll(normalizedJournals);
+			}
+			journals = merged;
+			pendingJournals = null;
+		}
+		return journals;
+	}
+
+	public void setJournals(Set<String> journals) {
+		this.journals = journals;
+		pendingJournals = null;
+	}
+
+	public void addJournals(Set<String> normalizedJournals) {
+		if (normalizedJournals.isEmpty()) {
+			return;
+		}
+		if (pendingJournals == null) {
+			pendingJournals = new ArrayList<>(2);
+		}
+		pendingJournals.add(normalizedJournals);
+	}
+
+	/*
+	 * Same result as a test on getJournals(), without adding the pending journals
+	 */
+	public boolean hasJournalIn(Set<String> names) {
+		for (String journal : journals) {
+			if (names.contains(journal)) {
+				return true;
+			}
+		}
+		if (pendingJournals != null) {
+			for (Set<String> normalizedJournals : pendingJournals) {
+				for (String journal : normalizedJournals) {
+					if (names.contains(journal)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The journals of getJournals() sorted, without adding the pending journals (see ExactDuplicates)
+	 */
+	public List<String> getSortedJournals() {
+		List<String> sortedJournals = new ArrayList<>(journals);
+		if (pendingJournals != null) {
+			for (Set<String> normalizedJournals : pendingJournals) {
+				for (String journal : normalizedJournals) {
+					if (!sortedJournals.contains(journal)) {
+						sortedJournals.add(journal);
+					}
+				}
+			}
+		}
+		Collections.sort(sortedJournals);
+		return sortedJournals;
+	}
+
+	// @formatter:off
+	/*
+	 * Called when the bibliographicItem has been read (IOService::readBibliographicItems) or loaded from a snapshot.
+	 * Most collections are empty or have 1 element, but a HashSet or ArrayList costs at least 4 objects.
+	 * - authors, authorsTransposed and pagesInput are only used while reading (IOService::fillAllAuthors and
+	 *   IOService::addNormalizedPages): they are dropped. Test on allAuthors instead of authors afterwards.
+	 * - empty collections are replaced by shared empty instances, allAuthors, isbns and issns by immutable copies
+	 * - 1 pending set of journals (the common case) becomes journals: it is an unmodifiable Set shared with other
+	 *   bibliographicItems (NormalizationCache)
+	 * - dois stays a HashSet if not empty: its iteration order is the order of the DOIs in the output file.
+	 *   titles stays a LinkedHashSet if not empty (getFirst())
+	 *
+	 * The collections should not be changed afterwards: replace them (see DuplicateListEnrichment).
+	 */
+	// @formatter:on
+	public void freeze() {
+		allAuthors = List.copyOf(allAuthors);
+		authors = List.of();
+		authorsTransposed = List.of();
+		pagesInput = null;
+		if (dois.isEmpty()) {
+			dois = Set.of();
+		}
+		isbns = Set.copyOf(isbns);
+		issns = Set.copyOf(issns);
+		if (pendingJournals == null) {
+			journals = Set.copyOf(journals);
+		} else if (journals.isEmpty() && pendingJournals.size() == 1) {
+			journals = pendingJournals.getFirst();
+			pendingJournals = null;
+		}
+		if (titles.isEmpty()) {
+			titles = NO_TITLES;
+		}
+	}
 }
@@ -2,9 +2,15 @@ package edu.dedupendnote.domain;
 
 public enum DeduplicationMode {
 	REMOVE,
-	MARK;
+	MARK,
+	/* REMOVE and MARK in 1 run: the deduplicated file and the marked file are written */
+	BOTH;
 
 	public static DeduplicationMode from(boolean markMode) {
 		return markMode ? MARK : REMOVE;
 	}
+
+	public static DeduplicationMode from(boolean markMode, boolean bothModes) {
+		return bothModes ? BOTH : from(markMode);
+	}
 }
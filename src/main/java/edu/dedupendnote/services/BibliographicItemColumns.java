@@ -0,0 +1,144 @@
+package edu.dedupendnote.services;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+
+import edu.dedupendnote.domain.BibliographicItem;
+
+// @formatter:off
+/*
+ * The fields of the bibliographicItems of a year set (DeduplicationService::compareSet) which are used in the first
+ * step of the comparison (starting pages or DOIs), as parallel arrays indexed by the position of the bibliographicItem
+ * in the year set:
+ * - publicationYears, flags (Cochrane, several pages)
+ * - pageStartIds: the number of the starting page in the year set, NO_PAGE_START if there is no starting page
+ * - doiIds: the numbers of the DOIs of all bibliographicItems, sorted per bibliographicItem.
+ *   The DOIs of bibliographicItem i are doiIds[doiOffsets[i]] .. doiIds[doiOffsets[i + 1] - 1]
+ *
+ * Every pair of the year set passes this first step, most pairs stop there. compareStartPagesOrDois(...) gives the same
+ * results as DefaultPagesComparisonService::compare, but compares numbers in arrays instead of Strings in the Sets of
+ * the bibliographicItems, and doesn't need a new HashSet per comparison of the DOIs.
+ *
+ * The columns are a speed-up of compareSet, not a store: they are built per year set next to the bibliographicItems,
+ * which stay in memory (the other steps of the comparison and the writers use them). They do not lower the memory.
+ */
+// @formatter:on
+final class BibliographicItemColumns {
+
+	private static final int NO_PAGE_START = -1;
+
+	private static final byte COCHRANE = 1;
+	private static final byte SEVERAL_PAGES = 2;
+
+	private final int[] publicationYears;
+	private final byte[] flags;
+	private final int[] pageStartIds;
+	private final int[] doiOffsets;
+	private final int[] doiIds;
+
+	BibliographicItemColumns(List<BibliographicItem> bibliographicItems) {
+		int size = bibliographicItems.size();
+		publicationYears = new int[size];
+		flags = new byte[size];
+		pageStartIds = new int[size];
+		doiOffsets = new int[size + 1];
+
+		Map<String, Integer> pageStartNumbers = new HashMap<>();
+		Map<String, Integer> doiNumbers = new HashMap<>();
+		int noOfDois = 0;
+		for (BibliographicItem bibliographicItem : bibliographicItems) {
+			noOfDois += bibliographicItem.getDois().size();
+		}
+		doiIds = new int[noOfDois];
+
+		int offset = 0;
+		for (int i = 0; i < size; i++) {
+			BibliographicItem bibliographicItem = bibliographicItems.get(i);
+			publicationYears[i] = bibliographicItem.getPublicationYear();
+			flags[i] = (byte) ((bibliographicItem.isCochrane() ? COCHRANE : 0)
+					| (bibliographicItem.isSeveralPages() ? SEVERAL_PAGES : 0));
+			pageStartIds[i] = number(bibliographicItem.getPageStart(), pageStartNumbers);
+
+			doiOffsets[i] = offset;
+			Set<String> dois = bibliographicItem.getDois();
+			for (String doi : dois) {
+				doiIds[offset++] = number(doi, doiNumbers);
+			}
+			Arrays.sort(doiIds, doiOffsets[i], offset);
+		}
+		doiOffsets[size] = offset;
+	}
+
+	/*
+	 * See DefaultPagesComparisonService::compare
+	 */
+	boolean compareStartPagesOrDois(int i1, int i2, Map<String, @Nullable Boolean> map) {
+		boolean bothCochrane = (flags[i1] & flags[i2] & COCHRANE) != 0;
+		boolean sufficientStartPages = pageStartIds[i1] != NO_PAGE_START && pageStartIds[i2] != NO_PAGE_START;
+		boolean sufficientDois = hasDois(i1) && hasDois(i2);
+		boolean atLeastOneSeveralPages = ((flags[i1] | flags[i2]) & SEVERAL_PAGES) != 0;
+		boolean sameStartPages = sufficientStartPages && pageStartIds[i1] == pageStartIds[i2];
+		boolean sameDois = sufficientDois && haveSameDoi(i1, i2);
+
+		if (sufficientDois) { // this test to keep the initial null value when not both have DOIs
+			map.put("isSameDois", sameDois);
+		}
+
+		if (bothCochrane) {
+			if (publicationYears[i1] == publicationYears[i2]) {
+				return sufficientDois ? sameDois : sameStartPages;
+			}
+			return false;
+		}
+		if (!sufficientStartPages && !sufficientDois) {
+			return true;
+		}
+		if (atLeastOneSeveralPages) {
+			return sameDois || sameStartPages;
+		}
+		if (sufficientStartPages) {
+			return sameStartPages;
+		}
+		return sameDois;
+	}
+
+	private boolean hasDois(int i) {
+		return doiOffsets[i] < doiOffsets[i + 1];
+	}
+
+	/*
+	 * Both ranges are sorted: 1 pass over both
+	 */
+	private boolean haveSameDoi(int i1, int i2) {
+		int k1 = doiOffsets[i1];
+		int end1 = doiOffsets[i1 + 1];
+		int k2 = doiOffsets[i2];
+		int end2 = doiOffsets[i2 + 1];
+		while (k1 < end1 && k2 < end2) {
+			int doi1 = doiIds[k1];
+			int doi2 = doiIds[k2];
+			if (doi1 == doi2) {
+				return true;
+			}
+			if (doi1 < doi2) {
+				k1++;
+			} else {
+				k2++;
+			}
+		}
+		return false;
+	}
+
+	private static int number(@Nullable String s, Map<String, Integer> numbers) {
+		if (s == null) {
+			return NO_PAGE_START;
+		}
+		Integer number = numbers.putIfAbsent(s, numbers.size());
+		return number == null ? numbers.size() - 1 : number;
+	}
+}
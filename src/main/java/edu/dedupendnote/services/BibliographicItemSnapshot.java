@@ -0,0 +1,329 @@
+package edu.dedupendnote.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.jspecify.annotations.Nullable;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import lombok.extern.slf4j.Slf4j;
+
+// @formatter:off
+/*
+ * Binary snapshot of the BibliographicItems of a RIS file, as they are after reading and normalization
+ * (IOService::readBibliographicItems). Loading a snapshot is much faster than parsing and normalizing the RIS file again,
+ * e.g. for the OLD file in deduplicateTwoFiles which is often the same library on every run.
+ *
+ * The snapshots are stored in their own directory (property snapshot-dir), named by the SHA-256 of the content of the
+ * RIS file: the same library uploaded under another name uses the same snapshot. Snapshots which have not been used
+ * for RETENTION are deleted when a new snapshot is written (deleteUnused).
+ *
+ * Format (DataOutputStream, big endian):
+ * - int MAGIC ("DENS"), int VERSION
+ * - 32 bytes: SHA-256 of the content of the RIS file. A snapshot is only used for a RIS file with the same content.
+ * - int number of items, then per item: id, publicationYear, flags, the nullable strings and the string collections.
+ *   Strings are written as int length (-1 for null) + UTF-8 bytes (DataOutputStream::writeUTF has a 64K limit).
+ *   The lengths are checked against the rest of the file before they are used (checkLength).
+ *   The collections are written in their iteration order: reading them back in the same order into new HashSets gives
+ *   the same iteration order (important for the order of the DOIs in the output file).
+ * - long CRC32 of all the preceding bytes
+ *
+ * VERSION must be increased when BibliographicItem or the normalization of the input changes: a snapshot with another
+ * version is ignored (and replaced).
+ */
+// @formatter:on
+@Slf4j
+public final class BibliographicItemSnapshot {
+
+	public static final String EXTENSION = ".snapshot";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private static final int MAGIC = 0x44454E53; // "DENS"
+	private static final int VERSION = 2;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Duration RETENTION = Duration.ofDays(30);
+
+	private static final int AUTHORS_ARE_TRANSPOSED = 1;
+	private static final int CLINICAL_TRIAL_GOV = 1 << 1;
+	private static final int COCHRANE = 1 << 2;
+	private static final int KEPT = 1 << 3;
+	private static final int PHASE = 1 << 4;
+	private static final int PRESENT_IN_OLD_FILE = 1 << 5;
+	private static final int REPLY = 1 << 6;
+	private static final int SEVERAL_PAGES = 1 << 7;
+
+	private BibliographicItemSnapshot() {
+	}
+
+	public static Path snapshotPath(Path snapshotDirectory, byte[] contentHash) {
+		return snapshotDirectory.resolve(HexFormat.of().formatHex(contentHash) + EXTENSION);
+	}
+
+	public static byte[] contentHash(Path inputPath) throws IOException {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream inputStream = Files.newInputStream(inputPath)) {
+			int n;
+			while ((n = inputStream.read(buffer)) > 0) {
+				messageDigest.update(buffer, 0, n);
+			}
+		}
+		return messageDigest.digest();
+	}
+
+	/*
+	 * Writes the snapshot to a temporary file which replaces the snapshot file when complete. The temporary file has a
+	 * unique name (2 runs with the same OLD file can write the same snapshot at the same time), and is deleted if the
+	 * snapshot could not be written.
+	 */
+	public static void write(List<BibliographicItem> bibliographicItems, Path snapshotPath, byte[] contentHash)
+			throws IOException {
+		Path snapshotDirectory = snapshotPath.toAbsolutePath().getParent();
+		if (snapshotDirectory == null) {
+			throw new IOException("Snapshot " + snapshotPath + " has no directory");
+		}
+		Files.createDirectories(snapshotDirectory);
+		Path tempPath = Files.createTempFile(snapshotDirectory, snapshotPath.getFileName() + ".", TEMP_EXTENSION);
+		boolean moved = false;
+		try {
+			CheckedOutputStream checkedOutputStream = new CheckedOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE), new CRC32());
+			try (DataOutputStream out = new DataOutputStream(checkedOutputStream)) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(contentHash);
+				out.writeInt(bibliographicItems.size());
+				for (BibliographicItem bibliographicItem : bibliographicItems) {
+					writeItem(out, bibliographicItem);
+				}
+				out.writeLong(checkedOutputStream.getChecksum().getValue());
+			}
+			Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if (!moved) {
+				deleteTemporary(tempPath);
+			}
+		}
+		deleteUnused(snapshotDirectory);
+	}
+
+	private static void deleteTemporary(Path tempPath) {
+		try {
+			Files.deleteIfExists(tempPath);
+		} catch (IOException e) {
+			log.warn("Temporary snapshot {} could not be deleted: {}", tempPath, e.getMessage());
+		}
+	}
+
+	private static void markAsUsed(Path snapshotPath) {
+		try {
+			Files.setLastModifiedTime(snapshotPath, FileTime.from(Instant.now()));
+		} catch (IOException e) {
+			log.warn("Last modified time of snapshot {} could not be set: {}", snapshotPath, e.getMessage());
+		}
+	}
+
+	/*
+	 * A snapshot which is read gets a new last modified time (markAsUsed). Temporary files which are left behind (e.g.
+	 * by a run which was killed while writing) are deleted after the same time.
+	 */
+	private static void deleteUnused(Path snapshotDirectory) {
+		FileTime oldest = FileTime.from(Instant.now().minus(RETENTION));
+		try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(snapshotDirectory,
+				"*{" + EXTENSION + "," + TEMP_EXTENSION + "}")) {
+			for (Path snapshot : snapshots) {
+				if (Files.getLastModifiedTime(snapshot).compareTo(oldest) < 0) {
+					log.info("Snapshot {} has not been used for {} days and is deleted", snapshot, RETENTION.toDays());
+					Files.delete(snapshot);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Unused snapshots in {} could not be deleted: {}", snapshotDirectory, e.getMessage());
+		}
+	}
+
+	/*
+	 * Returns null if there is no snapshot, or if it is not usable (other version or content hash, wrong checksum,
+	 * truncated file)
+	 */
+	public static @Nullable List<BibliographicItem> read(Path snapshotPath, byte[] contentHash) {
+		if (!Files.isRegularFile(snapshotPath)) {
+			return null;
+		}
+		CheckedInputStream checkedInputStream;
+		try {
+			checkedInputStream = new CheckedInputStream(
+					new BufferedInputStream(Files.newInputStream(snapshotPath), BUFFER_SIZE), new CRC32());
+		} catch (IOException e) {
+			log.warn("Snapshot {} could not be opened: {}", snapshotPath, e.getMessage());
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(checkedInputStream)) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.info("Snapshot {} has another format or version", snapshotPath);
+				return null;
+			}
+			byte[] storedHash = new byte[contentHash.length];
+			in.readFully(storedHash);
+			if (!Arrays.equals(storedHash, contentHash)) {
+				log.info("Snapshot {} is not a snapshot of the present input file", snapshotPath);
+				return null;
+			}
+			int size = checkLength(in, in.readInt());
+			List<BibliographicItem> bibliographicItems = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				bibliographicItems.add(readItem(in));
+			}
+			long checksum = checkedInputStream.getChecksum().getValue();
+			if (in.readLong() != checksum) {
+				log.warn("Snapshot {} has a wrong checksum", snapshotPath);
+				return null;
+			}
+			markAsUsed(snapshotPath);
+			return bibliographicItems;
+		} catch (IOException | RuntimeException e) {
+			log.warn("Snapshot {} could not be read: {}", snapshotPath, e.getMessage());
+			return null;
+		}
+	}
+
+	/*
+	 * writeItem and readItem are also used for the run files of YearPartitions
+	 */
+	static void writeItem(DataOutputStream out, BibliographicItem bibliographicItem) throws IOException {
+		out.writeInt(bibliographicItem.getId());
+		out.writeInt(bibliographicItem.getPublicationYear());
+		int flags = (bibliographicItem.isAuthorsAreTransposed() ? AUTHORS_ARE_TRANSPOSED : 0)
+				| (bibliographicItem.isClinicalTrialGov() ? CLINICAL_TRIAL_GOV : 0)
+				| (bibliographicItem.isCochrane() ? COCHRANE : 0)
+				| (bibliographicItem.isKeptBibliographicItem() ? KEPT : 0)
+				| (bibliographicItem.isPhase() ? PHASE : 0)
+				| (bibliographicItem.isPresentInOldFile() ? PRESENT_IN_OLD_FILE : 0)
+				| (bibliographicItem.isReply() ? REPLY : 0)
+				| (bibliographicItem.isSeveralPages() ? SEVERAL_PAGES : 0);
+		out.writeByte(flags);
+		out.writeInt(bibliographicItem.getClusterId());
+		writeString(out, bibliographicItem.getPageStart());
+		writeString(out, bibliographicItem.getPagesInput());
+		writeString(out, bibliographicItem.getPagesOutput());
+		writeString(out, bibliographicItem.getReferenceType());
+		writeString(out, bibliographicItem.getTitle());
+		writeStrings(out, bibliographicItem.getAllAuthors());
+		writeStrings(out, bibliographicItem.getAuthors());
+		writeStrings(out, bibliographicItem.getAuthorsTransposed());
+		writeStrings(out, bibliographicItem.getDois());
+		writeStrings(out, bibliographicItem.getIsbns());
+		writeStrings(out, bibliographicItem.getIssns());
+		writeStrings(out, bibliographicItem.getJournals());
+		writeStrings(out, bibliographicItem.getTitles());
+	}
+
+	static BibliographicItem readItem(DataInputStream in) throws IOException {
+		BibliographicItem bibliographicItem = new BibliographicItem();
+		bibliographicItem.setId(in.readInt());
+		bibliographicItem.setPublicationYear(in.readInt());
+		int flags = in.readUnsignedByte();
+		bibliographicItem.setAuthorsAreTransposed((flags & AUTHORS_ARE_TRANSPOSED) != 0);
+		bibliographicItem.setClinicalTrialGov((flags & CLINICAL_TRIAL_GOV) != 0);
+		bibliographicItem.setCochrane((flags & COCHRANE) != 0);
+		bibliographicItem.setKeptBibliographicItem((flags & KEPT) != 0);
+		bibliographicItem.setPhase((flags & PHASE) != 0);
+		bibliographicItem.setPresentInOldFile((flags & PRESENT_IN_OLD_FILE) != 0);
+		bibliographicItem.setReply((flags & REPLY) != 0);
+		bibliographicItem.setSeveralPages((flags & SEVERAL_PAGES) != 0);
+		bibliographicItem.setClusterId(in.readInt());
+		bibliographicItem.setPageStart(readString(in));
+		bibliographicItem.setPagesInput(readString(in));
+		bibliographicItem.setPagesOutput(readString(in));
+		bibliographicItem.setReferenceType(readString(in));
+		bibliographicItem.setTitle(readString(in));
+		readStrings(in, bibliographicItem.getAllAuthors());
+		readStrings(in, bibliographicItem.getAuthors());
+		readStrings(in, bibliographicItem.getAuthorsTransposed());
+		readStrings(in, bibliographicItem.getDois());
+		readStrings(in, bibliographicItem.getIsbns());
+		readStrings(in, bibliographicItem.getIssns());
+		readStrings(in, bibliographicItem.getJournals());
+		readStrings(in, bibliographicItem.getTitles());
+		bibliographicItem.freeze();
+		return bibliographicItem;
+	}
+
+	private static void writeString(DataOutputStream out, @Nullable String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static @Nullable String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[checkLength(in, length)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			writeString(out, s);
+		}
+	}
+
+	private static void readStrings(DataInputStream in, Collection<String> strings) throws IOException {
+		int size = checkLength(in, in.readInt());
+		for (int i = 0; i < size; i++) {
+			String s = readString(in);
+			if (s == null) {
+				throw new IOException("Unexpected null string in a collection");
+			}
+			strings.add(s);
+		}
+	}
+
+	/*
+	 * A length (or number of items) read from the file can't be larger than the rest of the file: a truncated or
+	 * corrupt file must not allocate an array of that length (an OutOfMemoryError is not caught by read(...)). For the
+	 * file streams used here available() is the number of bytes left in the file.
+	 */
+	private static int checkLength(DataInputStream in, int length) throws IOException {
+		if (length < 0 || length > in.available()) {
+			throw new IOException("Length " + length + " is larger than the rest of the file");
+		}
+		return length;
+	}
+}
@@ -1,5 +1,6 @@
 package edu.dedupendnote.services;
 
+import java.util.List;
 import java.util.Map;
 
 import org.jspecify.annotations.Nullable;
@@ -50,6 +51,31 @@ public class ComparisonService {
         return pagesComparisonService.compare(r1, r2, map);
     }
 
+    /*
+     * The columns for compareStartPagesOrDois by index (see BibliographicItemColumns), or null if the first step of
+     * the comparison is not DefaultPagesComparisonService or if its trace log (e.g. ValidationService) is needed
+     */
+    @Nullable
+    BibliographicItemColumns columnsFor(List<BibliographicItem> bibliographicItems) {
+        if (pagesComparisonService.getClass() != DefaultPagesComparisonService.class
+                || DefaultPagesComparisonService.isTraceEnabled()) {
+            return null;
+        }
+        return new BibliographicItemColumns(bibliographicItems);
+    }
+
+    /*
+     * ExactDuplicates can be used if 2 bibliographicItems which are the same in all compared fields are always
+     * duplicates: with the default comparisons of the authors, titles and starting pages or DOIs (with the same DOIs
+     * the journals are not compared), and not when the comparisons are traced.
+     */
+    boolean collapsesExactDuplicates() {
+        return authorsComparisonService.getClass() == DefaultAuthorsComparisonService.class
+                && titleComparisonService.getClass() == DefaultTitleComparisonService.class
+                && pagesComparisonService.getClass() == DefaultPagesComparisonService.class
+                && !DefaultPagesComparisonService.isTraceEnabled();
+    }
+
     /*
      * Compares the ISBNs or the ISSNs of 2 bibliographicItems
      */
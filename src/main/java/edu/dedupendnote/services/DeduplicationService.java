@@ -1,25 +1,29 @@
 package edu.dedupendnote.services;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import org.jspecify.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.annotation.RequestScope;
 
 import edu.dedupendnote.domain.BibliographicItem;
 import edu.dedupendnote.domain.DeduplicationMode;
+import edu.dedupendnote.services.IOService.NumbersWritten;
 import lombok.extern.slf4j.Slf4j;
 
 @Service
@@ -31,6 +35,29 @@ public class DeduplicationService {
 
 	private final IOService ioService;
 
+	/*
+	 * If set (property spill-dir, e.g. the upload-dir), deduplicateOneFile works out-of-core: see YearPartitions
+	 */
+	@Nullable
+	private Path spillDirectory;
+
+	/*
+	 * If set (property snapshot-dir), the OLD file of deduplicateTwoFiles is loaded from a snapshot in this directory
+	 * if possible: see BibliographicItemSnapshot
+	 */
+	@Nullable
+	private Path snapshotDirectory;
+
+	/*
+	 * If set (property nct-cochrane-clusters), IdentifierClusters uses the NCT IDs and the Cochrane DOIs
+	 */
+	private boolean nctCochraneClusters;
+
+	/*
+	 * If set (property doi-clusters), IdentifierClusters uses the other DOIs
+	 */
+	private boolean doiClusters;
+
 	// the DOIs have been lowercased
 	public static Pattern COCHRANE_DOI_PATTERN = Pattern.compile("^.*10.1002/14651858.([a-z][a-z]\\d+).*",
 			Pattern.CASE_INSENSITIVE);
@@ -56,6 +83,8 @@ public class DeduplicationService {
 	 *
 	 *   If markMode is set, bibliographicItems are not enriched and ALL bibliographicItems are written back.
 	 *   If a bibliographicItem is a duplicate, the Label field (LB) contains the ID of the first duplicate found.
+	 *   If mode is BOTH, steps 1-4 are done once, and step 5 writes the deduplicated file and the marked file
+	 *   (createOutputFileName(inputFileName, MARK)) in 1 pass over the input file.
 	 *
 	 *
 	 * Procedure for 2 files:
@@ -64,6 +93,8 @@ public class DeduplicationService {
 	 * 2. Read all EndNote bibliographicItems from this inputfile and make BibliographicItem objects only with the fields relevant for deduplication.
 	 *    Normalize fields as much as possible while calling the setters.
 	 *    Normalize the rest as the last field (EndNote ER field) is read.
+	 *    If a snapshot of the normalized bibliographicItems of this file exists (same file content) in the snapshot-dir,
+	 *    it is loaded instead (see BibliographicItemSnapshot).
 	 *    Alter the ID by prefixing them with "-" (to distinguish them from the IDs of the second file and making them unique over both files).
 	 *    All OLD bibliographicItems start with kepBibliographicItem = false and presentInOldFile = true.
 	 * 3. Do preliminary checks on input file for new bibliographicItems (EndNote IDs are present and unique) and exit when the checks do not pass.
@@ -85,6 +116,7 @@ public class DeduplicationService {
 	 *  If markMode is set, bibliographicItems are not enriched and ALL bibliographicItems of the NEW inputfile are written back.
 	 *  If a bibliographicItem is a duplicate, the Label field (LB) contains the ID of the first duplicate found.
 	 *  If the label starts with "-", it is a duplicate from a bibliographicItem from the OLD input file.
+	 *  If mode is BOTH, the deduplicated file and the marked file are written in 1 pass over the NEW input file.
 	 */
 	// @formatter:on
 
@@ -93,8 +125,38 @@ public class DeduplicationService {
 		this.comparisonService = comparisonService;
 	}
 
+	@Value("${spill-dir:#{null}}")
+	public void setSpillDirectory(@Nullable String spillDirectory) {
+		this.spillDirectory = spillDirectory == null || spillDirectory.isBlank() ? null : Path.of(spillDirectory);
+	}
+
+	@Value("${snapshot-dir:#{null}}")
+	public void setSnapshotDirectory(@Nullable String snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory == null || snapshotDirectory.isBlank() ? null
+				: Path.of(snapshotDirectory);
+	}
+
+	@Value("${nct-cochrane-clusters:false}")
+	public void setNctCochraneClusters(boolean nctCochraneClusters) {
+		this.nctCochraneClusters = nctCochraneClusters;
+	}
+
+	@Value("${doi-clusters:false}")
+	public void setDoiClusters(boolean doiClusters) {
+		this.doiClusters = doiClusters;
+	}
+
 	public void compareSet(List<BibliographicItem> bibliographicItems, Integer year, boolean descending,
 			Consumer<String> progressReporter) {
+		compareSet(bibliographicItems, year, descending, null, progressReporter);
+	}
+
+	/*
+	 * exactDuplicates (if not null): the exact duplicates left out of the year set. The pivot gets the reply flag or
+	 * the title of the exact duplicates which would be after it (ExactDuplicates.YearSet).
+	 */
+	private void compareSet(List<BibliographicItem> bibliographicItems, Integer year, boolean descending,
+			@Nullable ExactDuplicates exactDuplicates, Consumer<String> progressReporter) {
 		int noOfBibliographicItems = bibliographicItems.size();
 		int noOfDuplicates = 0;
 		/*
@@ -111,8 +173,17 @@ public class DeduplicationService {
 		Map<String, @Nullable Boolean> map = new HashMap<>();
 		// Map<String, Boolean> map = new HashMap<>(Map.of("isSameDois", null));
 
-		while (bibliographicItems.size() > 1) {
-			BibliographicItem pivot = bibliographicItems.remove(0);
+		/*
+		 * The bibliographicItems are compared by index: pivot i with all bibliographicItems after it.
+		 * The first step of the comparison uses the columns of the year set if possible.
+		 */
+		BibliographicItemColumns columns = comparisonService.columnsFor(bibliographicItems);
+		ExactDuplicates.YearSet placedDuplicates = exactDuplicates != null
+				? exactDuplicates.yearSet(bibliographicItems, year)
+				: null;
+
+		for (int i = 0; i < noOfBibliographicItems - 1; i++) {
+			BibliographicItem pivot = bibliographicItems.get(i);
 			/*
 			 * If descending / OneFile mode: only bibliographicItems of year1 should be compared to bibliographicItems of year1 and year2.
 			 * The bibliographicItems of year2 will be compared in the next pair of years.
@@ -122,15 +193,24 @@ public class DeduplicationService {
 					|| (!descending && pivot.getPublicationYear() != 0 && pivot.getPublicationYear() > year)) {
 				break;
 			}
+			if (placedDuplicates != null) {
+				placedDuplicates.startPivot(pivot);
+			}
 
-			for (BibliographicItem p : bibliographicItems) {
+			for (int j = i + 1; j < noOfBibliographicItems; j++) {
+				BibliographicItem p = bibliographicItems.get(j);
+				if (placedDuplicates != null) {
+					placedDuplicates.compareBefore(pivot, j);
+				}
 				map.put("isSameDois", null);
 				// log.atDebug().setMessage("Clear results previous comparison {}")
 				// .addArgument(() -> pivot.getLogLines().removeAll(bibliographicItem.getLogLines())).log();
 				if (log.isTraceEnabled()) {
 					log.trace("\nStarting comparison {} - {}", pivot.getId(), p.getId());
 				}
-				if (comparisonService.compareStartPagesOrDois(p, pivot, map)
+				boolean sameStartPagesOrDois = columns != null ? columns.compareStartPagesOrDois(j, i, map)
+						: comparisonService.compareStartPagesOrDois(p, pivot, map);
+				if (sameStartPagesOrDois
 						&& comparisonService.compareAuthors(p, pivot) && comparisonService.compareTitles(p, pivot)
 						&& (ComparisonService.compareSameDois(p, pivot, map.get("isSameDois"))
 								|| ComparisonService.compareIssns(p, pivot, map.get("isSameDois"))
@@ -138,11 +218,11 @@ public class DeduplicationService {
 
 					noOfDuplicates++;
 					// set the label
-					if (pivot.getLabel() != null) {
-						// log.debug("=== pub {} gets label {} from pivot {}", r.getId(), pivot.getLabel(),
+					if (pivot.hasCluster()) {
+						// log.debug("=== pub {} gets label {} from pivot {}", r.getId(), pivot.getClusterId(),
 						// pivot.getId());
-						p.setLabel(pivot.getLabel());
-					} else if (p.getLabel() != null) {
+						p.setClusterId(pivot.getClusterId());
+					} else if (p.hasCluster()) {
 						// @formatter:off
 						/**
 						 * THIS COPYING OF THE LABEL FROM THE BIBLIOGRAPHICITEM p TO THE PIVOT HAS BEEN DISABLED 
@@ -187,14 +267,14 @@ l						 * 		V 		W 		X
 						 * Without copy of label TO the pivot 10915 is NOT seen as a duplicate of 10428
 						 */
 						// @formatter:on
-						// log.error("=== pub {} SETs label {} in pivot {}", p.getId(), p.getLabel(),
+						// log.error("=== pub {} SETs label {} in pivot {}", p.getId(), p.getClusterId(),
 						// pivot.getId());
-						// pivot.setLabel(p.getLabel());
+						// pivot.setClusterId(p.getClusterId());
 					} else {
 						// log.debug("=== Both pivot {} and pub {} get label {} from the publicationId of the pivot {}",
 						// pivot.getId(), p.getId(), pivot.getId(), pivot.getId());
-						pivot.setLabel(String.valueOf(pivot.getId()));
-						p.setLabel(String.valueOf(pivot.getId()));
+						pivot.setClusterId(pivot.getId());
+						p.setClusterId(pivot.getId());
 					}
 
 					if (p.isReply()) {
@@ -204,6 +284,9 @@ l						 * 		V 		W 		X
 							pivot.setTitle(p.getTitle());
 						}
 					}
+					if (placedDuplicates != null) {
+						placedDuplicates.duplicates(pivot, j, p);
+					}
 					if (log.isTraceEnabled()) {
 						log.trace("{} - {} ARE DUPLICATES", pivot.getId(), p.getId());
 					}
@@ -215,46 +298,128 @@ l						 * 		V 		W 		X
 					}
 				}
 			}
+			if (placedDuplicates != null) {
+				placedDuplicates.compareBefore(pivot, noOfBibliographicItems);
+			}
 			progressReporter.accept("Working on %d for %d bibliographic items (marked %d duplicates)".formatted(year,
 					noOfBibliographicItems, noOfDuplicates));
 		}
 	}
 
-	private boolean containsDuplicateIds(List<BibliographicItem> bibliographicItems) {
-		return !bibliographicItems.stream().map(BibliographicItem::getId).allMatch(new HashSet<>()::add);
-	}
-
 	public String deduplicateOneFile(String inputFileName, String outputFileName, DeduplicationMode mode,
 			Consumer<String> progressReporter) {
 		progressReporter.accept("Reading file " + inputFileName);
-		List<BibliographicItem> bibliographicItems;
-		try {
-			bibliographicItems = ioService.readBibliographicItems(inputFileName, progressReporter);
-		} catch (InvalidRisFileException e) {
-			progressReporter.accept(e.getErrorMessage());
-			return e.getErrorMessage();
+		if (spillDirectory != null) {
+			return deduplicateOneFileOutOfCore(inputFileName, outputFileName, mode, progressReporter, spillDirectory);
 		}
+		try (MemoryAdmission.Reservation reservation = MemoryAdmission.heap().reserve()) {
+			List<BibliographicItem> bibliographicItems;
+			try {
+				bibliographicItems = ioService.readBibliographicItems(inputFileName, progressReporter, reservation);
+			} catch (InvalidRisFileException e) {
+				progressReporter.accept(e.getErrorMessage());
+				return e.getErrorMessage();
+			}
+			return deduplicateOneFile(bibliographicItems, inputFileName, outputFileName, mode, progressReporter, null);
+		}
+	}
 
-		String s = doSanityChecks(bibliographicItems, inputFileName);
-		if (s != null) {
+	/*
+	 * As deduplicateOneFile, but the bibliographicItems are only on the heap per year set (see YearPartitions)
+	 */
+	private String deduplicateOneFileOutOfCore(String inputFileName, String outputFileName, DeduplicationMode mode,
+			Consumer<String> progressReporter, Path spillDirectory) {
+		try (YearPartitions yearPartitions = new YearPartitions(spillDirectory)) {
+			List<BibliographicItem> bibliographicItems;
+			try {
+				bibliographicItems = ioService.readBibliographicItems(inputFileName, progressReporter, false,
+						yearPartitions, null);
+			} catch (InvalidRisFileException e) {
+				progressReporter.accept(e.getErrorMessage());
+				return e.getErrorMessage();
+			}
+			return deduplicateOneFile(bibliographicItems, inputFileName, outputFileName, mode, progressReporter,
+					yearPartitions);
+		} catch (IOException | UncheckedIOException e) {
+			log.error("Out-of-core deduplication of {} failed: {}", inputFileName, e.getMessage());
+			String s = "ERROR: The bibliographic items of " + inputFileName + " could not be saved in or read from "
+					+ spillDirectory + ": " + e.getMessage();
 			progressReporter.accept(s);
 			return s;
 		}
+	}
 
-		searchYearOneFile(bibliographicItems, progressReporter);
+	/*
+	 * As deduplicateOneFile, but the input file is read while it is being uploaded (inputStream is the body of the
+	 * request, contentLength its length or -1). The upload is saved as inputFileName. The comparisons start as soon as
+	 * the upload is complete. An upload larger than maxBytes throws an UploadTooLargeException.
+	 */
+	public String deduplicateUpload(InputStream inputStream, long contentLength, long maxBytes, String inputFileName,
+			String outputFileName, DeduplicationMode mode, Consumer<String> progressReporter) {
+		progressReporter.accept("Reading uploaded file " + inputFileName);
+		try (MemoryAdmission.Reservation reservation = MemoryAdmission.heap().reserve()) {
+			List<BibliographicItem> bibliographicItems;
+			try {
+				bibliographicItems = ioService.readBibliographicItems(inputStream, contentLength, maxBytes,
+						inputFileName, progressReporter, reservation);
+			} catch (UploadTooLargeException e) {
+				throw e;
+			} catch (InvalidRisFileException e) {
+				progressReporter.accept(e.getErrorMessage());
+				return e.getErrorMessage();
+			}
+			return deduplicateOneFile(bibliographicItems, inputFileName, outputFileName, mode, progressReporter, null);
+		}
+	}
+
+	private String deduplicateOneFile(List<BibliographicItem> bibliographicItems, String inputFileName,
+			String outputFileName, DeduplicationMode mode, Consumer<String> progressReporter,
+			@Nullable YearPartitions yearPartitions) {
+		String s;
+		ExactDuplicates exactDuplicates = comparisonService.collapsesExactDuplicates() ? new ExactDuplicates() : null;
+		IdentifierClusters identifierClusters = yearPartitions == null ? newIdentifierClusters() : null;
+		if (yearPartitions == null) {
+			List<BibliographicItem> compared = exactDuplicates != null ? exactDuplicates.collapse(bibliographicItems)
+					: bibliographicItems;
+			if (identifierClusters != null) {
+				compared = identifierClusters.collapse(compared, true, this::isDuplicate);
+			}
+			searchYearOneFile(compared, exactDuplicates, progressReporter);
+		} else {
+			if (exactDuplicates != null) {
+				exactDuplicates.collapse(bibliographicItems, yearPartitions.getExactDuplicateKeys());
+			}
+			searchYearOneFile(bibliographicItems, progressReporter, yearPartitions, exactDuplicates);
+		}
+		// the exact duplicates of a member of an identifier cluster get the label of the member
+		if (identifierClusters != null) {
+			identifierClusters.label();
+		}
+		if (exactDuplicates != null) {
+			exactDuplicates.label();
+		}
 
 		if (mode == DeduplicationMode.MARK) {
 			int numberWritten = ioService.writeMarkedBibliographicItems(bibliographicItems, inputFileName,
 					outputFileName);
-			long labeledBibliographicItems = bibliographicItems.stream().filter(r -> r.getLabel() != null).count();
+			long labeledBibliographicItems = bibliographicItems.stream().filter(BibliographicItem::hasCluster).count();
 			s = "DONE: DedupEndNote has written " + numberWritten + " bibliographic items with "
 					+ labeledBibliographicItems + " duplicates marked in the Label field.";
 			progressReporter.accept(s);
 			return s;
 		}
 
-		progressReporter.accept("Enriching the " + bibliographicItems.size() + " deduplicated results");
-		enrich(bibliographicItems);
+		if (mode == DeduplicationMode.BOTH) {
+			progressReporter.accept("Saving the " + bibliographicItems.size() + " deduplicated and marked results");
+			long labeledBibliographicItems = bibliographicItems.stream().filter(BibliographicItem::hasCluster).count();
+			NumbersWritten numbersWritten = ioService.writeDeduplicatedAndMarkedBibliographicItems(bibliographicItems,
+					inputFileName, outputFileName,
+					UtilitiesService.createOutputFileName(inputFileName, DeduplicationMode.MARK), r -> true);
+			s = formatResultString(bibliographicItems.size(), numbersWritten.deduplicated())
+					+ formatMarkedResultString(numbersWritten.marked(), labeledBibliographicItems);
+			progressReporter.accept(s);
+			return s;
+		}
 		progressReporter.accept("Saving the " + bibliographicItems.size() + " deduplicated results");
 		int numberWritten = ioService.writeDeduplicatedBibliographicItems(bibliographicItems, inputFileName,
 				outputFileName);
@@ -266,30 +431,35 @@ l						 * 		V 		W 		X
 
 	public String deduplicateTwoFiles(String newInputFileName, String oldInputFileName, String outputFileName,
 			DeduplicationMode mode, Consumer<String> progressReporter) {
+		try (MemoryAdmission.Reservation reservation = MemoryAdmission.heap().reserve()) {
+			return deduplicateTwoFiles(newInputFileName, oldInputFileName, outputFileName, mode, progressReporter,
+					reservation);
+		}
+	}
+
+	private String deduplicateTwoFiles(String newInputFileName, String oldInputFileName, String outputFileName,
+			DeduplicationMode mode, Consumer<String> progressReporter, MemoryAdmission.Reservation reservation) {
 		// read the old bibliographicItems and mark them as present, then add the new bibliographicItems
 		log.info("oldInputFileName: {}", oldInputFileName);
 		log.info("newInputFileName: {}", newInputFileName);
 		List<BibliographicItem> bibliographicItems;
 		try {
-			bibliographicItems = ioService.readBibliographicItems(oldInputFileName, progressReporter);
+			bibliographicItems = snapshotDirectory != null
+					? ioService.readBibliographicItemsUsingSnapshot(oldInputFileName, snapshotDirectory,
+							progressReporter, reservation)
+					: ioService.readBibliographicItems(oldInputFileName, progressReporter, reservation);
 		} catch (InvalidRisFileException e) {
 			progressReporter.accept(e.getErrorMessage());
 			return e.getErrorMessage();
 		}
 
-		String s = doSanityChecks(bibliographicItems, oldInputFileName);
-		if (s != null) {
-			progressReporter.accept(s);
-			return s;
-		}
-
 		/*
-		 * Put "-" before the IDs of the old bibliographicItems. In this way the labels of the bibliographicItems (used for
+		 * Negate the IDs of the old bibliographicItems. In this way the clusterIds of the bibliographicItems (used for
 		 * identifying duplicate bibliographicItems) will be unique over both lists.
-		 * When writing the deduplicated bibliographicItems for the second list, bibliographicItems with label "-..." can
-		 * be skipped because they are duplicates of bibliographicItems from the first list.
-		 * When MARK mode is set, these bibliographicItems are written.
-		 * Because of this "-", the bibliographicItems which have duplicates in the first file (label = "-...")
+		 * When writing the deduplicated bibliographicItems for the second list, bibliographicItems with a negative
+		 * clusterId can be skipped because they are duplicates of bibliographicItems from the first list.
+		 * When MARK mode is set, these bibliographicItems are written (Label "-...").
+		 * Because of this sign, the bibliographicItems which have duplicates in the first file (isInOldFileCluster())
 		 * can be distinguished from bibliographicItems which have duplicates in the second file.
 		 */
 		bibliographicItems.forEach(r -> {
@@ -299,176 +469,77 @@ l						 * 		V 		W 		X
 
 		List<BibliographicItem> newBibliographicItems;
 		try {
-			newBibliographicItems = ioService.readBibliographicItems(newInputFileName, progressReporter);
+			newBibliographicItems = ioService.readBibliographicItems(newInputFileName, progressReporter, reservation);
 		} catch (InvalidRisFileException e) {
 			progressReporter.accept(e.getErrorMessage());
 			return e.getErrorMessage();
 		}
-		s = doSanityChecks(newBibliographicItems, newInputFileName);
-		if (s != null) {
-			progressReporter.accept(s);
-			return s;
-		}
 		bibliographicItems.addAll(newBibliographicItems);
 		log.info("Publications read from 2 files: {}", bibliographicItems.size());
 
-		searchYearTwoFiles(bibliographicItems, progressReporter);
+		String s;
+		ExactDuplicates exactDuplicates = comparisonService.collapsesExactDuplicates() ? new ExactDuplicates() : null;
+		IdentifierClusters identifierClusters = newIdentifierClusters();
+		List<BibliographicItem> compared = exactDuplicates != null ? exactDuplicates.collapse(bibliographicItems)
+				: bibliographicItems;
+		if (identifierClusters != null) {
+			compared = identifierClusters.collapse(compared, false, this::isDuplicate);
+		}
+		searchYearTwoFiles(compared, exactDuplicates, progressReporter);
+		if (identifierClusters != null) {
+			identifierClusters.label();
+		}
+		if (exactDuplicates != null) {
+			exactDuplicates.label();
+		}
 
 		if (mode == DeduplicationMode.MARK) {
 			int numberWritten = ioService.writeMarkedBibliographicItems(bibliographicItems, newInputFileName,
 					outputFileName);
 			long numberLabeledBibliographicItems = bibliographicItems.stream()
-					.filter(r -> r.getLabel() != null && !r.isPresentInOldFile()).count();
+					.filter(r -> r.hasCluster() && !r.isPresentInOldFile()).count();
 			s = "DONE: DedupEndNote has written %s bibliographic items with %d duplicates marked in the Label field."
 					.formatted(numberWritten, numberLabeledBibliographicItems);
 			progressReporter.accept(s);
 			return s;
 		}
 
-		enrich(bibliographicItems);
 		// Get the bibliographicItems from the new file that are not duplicates or not duplicates of bibliographicItems of the old
 		// file
-		List<BibliographicItem> filteredBibliographicItems = bibliographicItems.stream()
-				.filter(r -> !r.isPresentInOldFile() && (r.getLabel() == null || !r.getLabel().startsWith("-")))
-				.toList();
-		log.error("Publications to write: {}", filteredBibliographicItems.size());
-		int numberWritten = ioService.writeDeduplicatedBibliographicItems(filteredBibliographicItems, newInputFileName,
-				outputFileName);
+		Predicate<BibliographicItem> notInOldFile = r -> !r.isPresentInOldFile()
+				&& !r.isInOldFileCluster();
+		if (mode == DeduplicationMode.BOTH) {
+			long numberLabeledBibliographicItems = bibliographicItems.stream()
+					.filter(r -> r.hasCluster() && !r.isPresentInOldFile()).count();
+			NumbersWritten numbersWritten = ioService.writeDeduplicatedAndMarkedBibliographicItems(bibliographicItems,
+					newInputFileName, outputFileName,
+					UtilitiesService.createOutputFileName(newInputFileName, DeduplicationMode.MARK), notInOldFile);
+			s = "DONE: DedupEndNote removed %d bibliographic items from the new set, and has written %d bibliographic items."
+					.formatted((newBibliographicItems.size() - numbersWritten.deduplicated()),
+							numbersWritten.deduplicated())
+					+ formatMarkedResultString(numbersWritten.marked(), numberLabeledBibliographicItems);
+			progressReporter.accept(s);
+			return s;
+		}
+		log.error("Publications to write: {}", bibliographicItems.stream().filter(notInOldFile).count());
+		int numberWritten = ioService.writeDeduplicatedBibliographicItems(bibliographicItems, newInputFileName,
+				outputFileName, notInOldFile);
 		s = "DONE: DedupEndNote removed %d bibliographic items from the new set, and has written %d bibliographic items."
 				.formatted((newBibliographicItems.size() - numberWritten), numberWritten);
 		progressReporter.accept(s);
 		return s;
 	}
 
-	public @Nullable String doSanityChecks(List<BibliographicItem> bibliographicItems, String fileName) {
-		/*
-		 * "containsBibliographicItemsWithoutId" check removed: id is now a primitive int.
-		 * IOService always assigns an id >= 1; InvalidRisFileException is thrown for non-numeric ID fields.
-		 *
-		 * "containsOnlyBibliographicItemsWithoutPublicationYear" check removed: a dataset where
-		 * every record has publicationYear == 0 (no PY field, or year < 1850) is acceptable —
-		 * year-bucketing simply groups everything in the year-0 bucket and comparisons still run.
-		 */
-		if (containsDuplicateIds(bibliographicItems)) {
-			return "ERROR: The IDs of the bibliographic items of input file " + fileName
-					+ " are not unique. The input file is not an Export as RIS-file from 1 EndNote library!";
-		}
-		return null;
-	}
-
-	private void enrich(List<BibliographicItem> bibliographicItems) {
-		log.debug("Start enrich");
-		// First the bibliographicItems with duplicates
-		Map<String, List<BibliographicItem>> labelMap = bibliographicItems.stream()
-				// when comparing 2 files, duplicates from the old file start with "-"
-				.filter(r -> r.getLabel() != null && !r.getLabel().startsWith("-"))
-				.collect(Collectors.groupingBy(BibliographicItem::getLabel));
-		log.debug("Number of duplicate lists {}, and IDs of kept bibliographicItems: {}", labelMap.size(),
-				labelMap.keySet());
-		List<BibliographicItem> bibliographicItemList;
-		if (!labelMap.isEmpty()) {
-			for (Map.Entry<String, List<BibliographicItem>> entry : labelMap.entrySet()) {
-				bibliographicItemList = entry.getValue();
-				BibliographicItem bibliographicItemToKeep = bibliographicItemList.remove(0);
-				log.debug("Kept: {}: {}", bibliographicItemToKeep.getId(),
-						(bibliographicItemToKeep.getTitles().isEmpty() ? "(no titles found)"
-								: bibliographicItemToKeep.getTitles().getFirst()));
-				// Don't set keptPublication in compareSet(): trouble when multiple duplicates and no bibliographicItem year
-				bibliographicItemList.stream().forEach(r -> r.setKeptBibliographicItem(false));
-
-				// Reply and Retraction: replace the title with the longest title from the duplicates
-				if (bibliographicItemToKeep.isReply() || (!bibliographicItemToKeep.isClinicalTrialGov()
-						&& bibliographicItemToKeep.getTitle() != null)) {
-					log.debug("BibliographicItem {} is a reply: ", bibliographicItemToKeep.getId());
-					String longestTitle = bibliographicItemList.stream()
-							// .filter(BibliographicItem::isReply)
-							.map(r -> {
-								log.debug("Reply {} has title: {}.", r.getId(), r.getTitle());
-								return r.getTitle() != null ? r.getTitle() : r.getTitles().getFirst();
-							}).max(Comparator.comparingInt(String::length)).orElse("");
-					// There are cases where not all titles are recognized as replies -> bibliographicItem.title can be null
-					if (bibliographicItemToKeep.getTitle() == null
-							|| bibliographicItemToKeep.getTitle().length() < longestTitle.length()) {
-						log.debug("REPLY: changing title {}\nto {}", bibliographicItemToKeep.getTitle(), longestTitle);
-						bibliographicItemToKeep.setTitle(longestTitle);
-					}
-				}
-				// Clinical trials from ClinicalTrials.gov: replace the title with the shortest title from the
-				// duplicates
-				if (bibliographicItemToKeep.isClinicalTrialGov()) {
-					log.debug("BibliographicItem {} is a trial: ", bibliographicItemToKeep.getId());
-					String shortestTitle = bibliographicItemList.stream().map(r -> {
-						log.debug("Trial {} has title: {}.", r.getId(), r.getTitle());
-						return r.getTitle() != null ? r.getTitle() : r.getTitles().getFirst();
-					}).min(Comparator.comparingInt(String::length)).orElse("");
-					// There are cases where bibliographicItem.title can be null (??)
-					if (bibliographicItemToKeep.getTitle() == null
-							|| bibliographicItemToKeep.getTitle().length() > shortestTitle.length()) {
-						log.debug("Trial: changing title {}\nto {}", bibliographicItemToKeep.getTitle(), shortestTitle);
-						bibliographicItemToKeep.setTitle(shortestTitle);
-					}
-				}
-
-				// Gather all the DOIs
-				final Set<String> dois = bibliographicItemToKeep.getDois();
-				for (BibliographicItem p : bibliographicItemList) {
-					if (!p.getDois().isEmpty()) {
-						dois.addAll(p.getDois());
-					}
-				}
-				if (!dois.isEmpty()) {
-					bibliographicItemToKeep.setDois(dois);
-				}
-
-				// Add missing bibliographicItem year
-				if (bibliographicItemToKeep.getPublicationYear() == 0) {
-					log.debug("Reached bibliographicItem without publicationYear");
-					bibliographicItemList.stream().filter(r -> r.getPublicationYear() != 0).findFirst()
-							.ifPresent(r -> bibliographicItemToKeep.setPublicationYear(r.getPublicationYear()));
-				}
-
-				if (bibliographicItemToKeep.isCochrane() && bibliographicItemToKeep.getPagesOutput() != null) {
-					// replaceCochranePageStart(bibliographicItemToKeep, bibliographicItemList);
-					bibliographicItemToKeep.setPagesOutput(bibliographicItemToKeep.getPagesOutput().toUpperCase());
-				}
-
-				// Add missing pagesOutput
-				if (bibliographicItemToKeep.getPagesOutput() == null
-						|| bibliographicItemToKeep.getPagesOutput().isEmpty()) {
-					log.debug("Reached bibliographicItem without pagesOutput: {}", bibliographicItemToKeep.getId());
-					bibliographicItemList.stream().filter(r -> r.getPagesOutput() != null).findFirst().ifPresent(r -> {
-						// publicationToKeep.setPageStart(r.getPageStart());
-						// publicationToKeep.setPageEnd(r.getPageEnd());
-						bibliographicItemToKeep.setPagesOutput(r.getPagesOutput());
-					});
-				}
-
-				/*
-				 * FIXME: Should empty authors be filled in from the duplicate set? See DOI
-				 * 10.2298/sarh0902077c in test database, but the 2 duplicates have not the same
-				 * author forms: "Culafic, D." (WoS) and "Dorde, Ć" (Scopus, error)
-				 * Better example: 4605 in BIG_TEST without authors, 21391 with authors.
-				 * But bibliographicItems can have different authors: in BIG_SET 4226 (none), 21471 (Banks ...), 36519 (Cabot ...)
-				 */
-			}
-		}
-
-		// Then the Cochrane bibliographicItems without duplicates
-		for (BibliographicItem r : bibliographicItems) {
-			if (r.isCochrane() && r.getLabel() == null && r.getPagesOutput() != null) {
-				// replaceCochranePageStart(r, Collections.emptyList());
-				r.setPagesOutput(r.getPagesOutput().toUpperCase());
-			}
-		}
-
-		log.debug("Finished enrich");
-	}
-
 	public String formatResultString(int total, int totalWritten) {
 		return "DONE: DedupEndNote has deduplicated " + total + " bibliographic items, has removed "
 				+ (total - totalWritten) + " duplicates, and has written " + totalWritten + " bibliographic items.";
 	}
 
+	private String formatMarkedResultString(int numberWritten, long numberLabeled) {
+		return " The marked file has " + numberWritten + " bibliographic items with " + numberLabeled
+				+ " duplicates marked in the Label field.";
+	}
+
 	/*
 	 * For 1 file:
 	 * - order year descending
@@ -478,6 +549,11 @@ l						 * 		V 		W 		X
 	 * of print which is possibly from earlier year or without a year).
 	 */
 	public void searchYearOneFile(List<BibliographicItem> bibliographicItems, Consumer<String> progressReporter) {
+		searchYearOneFile(bibliographicItems, null, progressReporter);
+	}
+
+	private void searchYearOneFile(List<BibliographicItem> bibliographicItems,
+			@Nullable ExactDuplicates exactDuplicates, Consumer<String> progressReporter) {
 		Map<Integer, List<BibliographicItem>> yearSets = bibliographicItems.stream()
 				.collect(
 						Collectors.groupingBy(BibliographicItem::getPublicationYear, TreeMap::new, Collectors.toList()))
@@ -491,16 +567,113 @@ l						 * 		V 		W 		X
 			List<BibliographicItem> yearSet = yearSets.get(year);
 			if (yearSet != null) {
 				if (emptyYearlist != null) {
-					yearSet.addAll(emptyYearlist.stream().filter(r -> r.getLabel() == null).toList());
+					yearSet.addAll(emptyYearlist.stream().filter(r -> !r.hasCluster()).toList());
 				}
 				yearSet.addAll(yearSets.getOrDefault(year - 1, List.of()));
 				progressReporter.accept("Working on " + year + " for " + yearSet.size() + " bibliographic items");
-				compareSet(yearSet, year, true, progressReporter);
+				compareSet(yearSet, year, true, exactDuplicates, progressReporter);
 				progressReporter.accept("PROGRESS: " + cumulativePercentages.get(year));
 			}
 		});
 	}
 
+	/*
+	 * searchYearOneFile in out-of-core mode: bibliographicItems are the light copies of YearPartitions. The year sets
+	 * are the same, but compareSet compares the bibliographicItems loaded from the run files: the 2 years of the year
+	 * set (the older year is kept for the next year set) and year 0 (loaded once). The results of compareSet are
+	 * copied from the light copies to the loaded bibliographicItems before compareSet, and back afterwards.
+	 * The exact duplicates (if not null) are left out of the year sets.
+	 */
+	private void searchYearOneFile(List<BibliographicItem> bibliographicItems, Consumer<String> progressReporter,
+			YearPartitions yearPartitions, @Nullable ExactDuplicates exactDuplicates) {
+		Predicate<BibliographicItem> compared = exactDuplicates == null ? r -> true
+				: r -> !exactDuplicates.isDuplicate(r);
+		Map<Integer, List<BibliographicItem>> yearSets = bibliographicItems.stream()
+				.collect(
+						Collectors.groupingBy(BibliographicItem::getPublicationYear, TreeMap::new, Collectors.toList()))
+				.descendingMap();
+
+		Map<Integer, Integer> cumulativePercentages = getCumulativePercentages(bibliographicItems, yearSets);
+
+		List<BibliographicItem> emptyYearlist = yearSets.remove(0);
+		List<BibliographicItem> loadedEmptyYearlist = emptyYearlist != null ? yearPartitions.load(0) : List.of();
+		@Nullable
+		List<BibliographicItem> loadedPreviousYearlist = null;
+		for (Map.Entry<Integer, List<BibliographicItem>> entry : yearSets.entrySet()) {
+			int year = entry.getKey();
+			List<BibliographicItem> yearSet = new ArrayList<>();
+			List<BibliographicItem> loadedYearSet = new ArrayList<>();
+			addCompared(entry.getValue(),
+					loadedPreviousYearlist != null ? loadedPreviousYearlist : yearPartitions.load(year), compared,
+					yearSet, loadedYearSet);
+			if (emptyYearlist != null) {
+				for (int i = 0; i < emptyYearlist.size(); i++) {
+					if (!emptyYearlist.get(i).hasCluster()) {
+						yearSet.add(emptyYearlist.get(i));
+						loadedYearSet.add(loadedEmptyYearlist.get(i));
+					}
+				}
+			}
+			List<BibliographicItem> previousYearlist = yearSets.getOrDefault(year - 1, List.of());
+			loadedPreviousYearlist = previousYearlist.isEmpty() ? null : yearPartitions.load(year - 1);
+			if (loadedPreviousYearlist != null) {
+				addCompared(previousYearlist, loadedPreviousYearlist, compared, yearSet, loadedYearSet);
+			}
+			progressReporter.accept("Working on " + year + " for " + yearSet.size() + " bibliographic items");
+			copyComparisonResults(yearSet, loadedYearSet);
+			compareSet(loadedYearSet, year, true, exactDuplicates, progressReporter);
+			copyComparisonResults(loadedYearSet, yearSet);
+			progressReporter.accept("PROGRESS: " + cumulativePercentages.get(year));
+		}
+	}
+
+	private static void addCompared(List<BibliographicItem> yearList, List<BibliographicItem> loadedYearList,
+			Predicate<BibliographicItem> compared, List<BibliographicItem> yearSet,
+			List<BibliographicItem> loadedYearSet) {
+		for (int i = 0; i < yearList.size(); i++) {
+			if (compared.test(yearList.get(i))) {
+				yearSet.add(yearList.get(i));
+				loadedYearSet.add(loadedYearList.get(i));
+			}
+		}
+	}
+
+	/*
+	 * With nct-cochrane-clusters or doi-clusters. Not in out-of-core mode.
+	 */
+	private @Nullable IdentifierClusters newIdentifierClusters() {
+		if (nctCochraneClusters || doiClusters) {
+			return new IdentifierClusters(nctCochraneClusters, doiClusters);
+		}
+		return null;
+	}
+
+	/*
+	 * The comparison of compareSet for 1 pair: p is after pivot in the list
+	 */
+	private boolean isDuplicate(BibliographicItem p, BibliographicItem pivot) {
+		Map<String, @Nullable Boolean> map = new HashMap<>();
+		map.put("isSameDois", null);
+		return comparisonService.compareStartPagesOrDois(p, pivot, map) && comparisonService.compareAuthors(p, pivot)
+				&& comparisonService.compareTitles(p, pivot)
+				&& (ComparisonService.compareSameDois(p, pivot, map.get("isSameDois"))
+						|| ComparisonService.compareIssns(p, pivot, map.get("isSameDois"))
+						|| comparisonService.compareJournals(p, pivot, map.get("isSameDois")));
+	}
+
+	/*
+	 * The fields which are changed by compareSet
+	 */
+	private static void copyComparisonResults(List<BibliographicItem> from, List<BibliographicItem> to) {
+		for (int i = 0; i < from.size(); i++) {
+			BibliographicItem source = from.get(i);
+			BibliographicItem target = to.get(i);
+			target.setClusterId(source.getClusterId());
+			target.setReply(source.isReply());
+			target.setTitle(source.getTitle());
+		}
+	}
+
 	// @formatter:off
 	/*
 	 * For 2 files: 
@@ -512,6 +685,11 @@ l						 * 		V 		W 		X
 	 */
 	// @formatter:on
 	public void searchYearTwoFiles(List<BibliographicItem> bibliographicItems, Consumer<String> progressReporter) {
+		searchYearTwoFiles(bibliographicItems, null, progressReporter);
+	}
+
+	private void searchYearTwoFiles(List<BibliographicItem> bibliographicItems,
+			@Nullable ExactDuplicates exactDuplicates, Consumer<String> progressReporter) {
 		Map<Integer, List<BibliographicItem>> yearSets = bibliographicItems.stream().collect(
 				Collectors.groupingBy(BibliographicItem::getPublicationYear, TreeMap::new, Collectors.toList()));
 		Map<Integer, Integer> cumulativePercentages = getCumulativePercentages(bibliographicItems, yearSets);
@@ -521,12 +699,12 @@ l						 * 		V 		W 		X
 		yearSets.keySet().stream().forEach(year -> {
 			List<BibliographicItem> yearSet = new ArrayList<>();
 			if (emptyYearlist != null) {
-				yearSet.addAll(emptyYearlist.stream().filter(r -> r.getLabel() == null).toList());
+				yearSet.addAll(emptyYearlist.stream().filter(r -> !r.hasCluster()).toList());
 			}
 			yearSet.addAll(yearSets.get(year));
 			yearSet.addAll(yearSets.getOrDefault(year + 1, List.of()));
 			progressReporter.accept("Working on " + year + " for " + yearSet.size() + " bibliographic items");
-			compareSet(yearSet, year, false, progressReporter);
+			compareSet(yearSet, year, false, exactDuplicates, progressReporter);
 			progressReporter.accept("PROGRESS: " + cumulativePercentages.get(year));
 		});
 	}
@@ -1,15 +1,11 @@
 package edu.dedupendnote.services;
 
-import org.apache.commons.text.similarity.JaroWinklerSimilarity;
-
 import edu.dedupendnote.domain.BibliographicItem;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class DefaultAuthorsComparisonService implements AuthorsComparisonService {
 
-	private static JaroWinklerSimilarity jws = new JaroWinklerSimilarity();
-
 	private final AuthorThresholds thresholds;
 	private Double similarity = 0.0;
 
@@ -56,7 +52,7 @@ public class DefaultAuthorsComparisonService implements AuthorsComparisonService
 
 		for (String authors1 : r1.getAllAuthors()) {
 			for (String authors2 : r2.getAllAuthors()) {
-				similarity = jws.apply(authors1, authors2);
+				similarity = JaroWinkler.similarity(authors1, authors2);
 				if (isReply) {
 					if (!(sufficientStartPages || sufficientDois)
 							&& similarity > thresholds.replyInsufficientStartPagesAndDois()) {
@@ -8,7 +8,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import org.apache.commons.text.similarity.JaroWinklerSimilarity;
 import org.jspecify.annotations.Nullable;
 
 import edu.dedupendnote.domain.BibliographicItem;
@@ -17,7 +16,6 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class DefaultJournalComparisonService implements JournalComparisonService {
 
-    private static final JaroWinklerSimilarity JWS = new JaroWinklerSimilarity();
     private static final Map<String, Pattern> ABBREVIATION_CACHE = new ConcurrentHashMap<>();
     private static final Map<String, Pattern> INITIALISM_CACHE = new ConcurrentHashMap<>();
     private static final Map<String, Pattern> STARTING_INITIALISM_CACHE = new ConcurrentHashMap<>();
@@ -58,7 +56,7 @@ public class DefaultJournalComparisonService implements JournalComparisonService
                 if (s1.startsWith("http") && s2.startsWith("http") && !s1.equals(s2)) {
                     continue;
                 }
-                Double similarity = JWS.apply(s1.toLowerCase(), s2.toLowerCase());
+                double similarity = JaroWinkler.similarity(s1.toLowerCase(), s2.toLowerCase());
                 if (isReply && similarity > thresholds.reply()) {
                     log.trace("- 4. Journal similarity above treshold (reply)");
                     return true;
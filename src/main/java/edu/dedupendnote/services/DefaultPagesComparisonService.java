@@ -11,6 +11,10 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class DefaultPagesComparisonService implements PagesComparisonService {
 
+    static boolean isTraceEnabled() {
+        return log.isTraceEnabled();
+    }
+
     @Override
     public boolean compare(BibliographicItem r1, BibliographicItem r2, Map<String, @Nullable Boolean> map) {
         Set<String> dois1 = r1.getDois();
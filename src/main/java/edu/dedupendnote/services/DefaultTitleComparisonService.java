@@ -2,16 +2,12 @@ package edu.dedupendnote.services;
 
 import java.util.Set;
 
-import org.apache.commons.text.similarity.JaroWinklerSimilarity;
-
 import edu.dedupendnote.domain.BibliographicItem;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class DefaultTitleComparisonService implements TitleComparisonService {
 
-    private static final JaroWinklerSimilarity JWS = new JaroWinklerSimilarity();
-
     private final TitleThresholds thresholds;
 
     public DefaultTitleComparisonService() {
@@ -52,9 +48,9 @@ public class DefaultTitleComparisonService implements TitleComparisonService {
                 if (minLength < 1) {
                     log.error("For publ {} or {} the titles are too short: '{}' or '{}'", r1.getId(), r2.getId(),
                             title1, title2);
-                    similarity = JWS.apply(title1, title2);
+                    similarity = JaroWinkler.similarity(title1, title2);
                 } else {
-                    similarity = JWS.apply(title1.substring(0, minLength), title2.substring(0, minLength));
+                    similarity = JaroWinkler.similarity(title1, title2, minLength);
                 }
 
                 // similarity = jws.apply(title1, title2);
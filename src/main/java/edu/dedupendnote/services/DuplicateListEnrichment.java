@@ -0,0 +1,175 @@
+package edu.dedupendnote.services;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import lombok.extern.slf4j.Slf4j;
+
+// @formatter:off
+/*
+ * Enrichment of the kept bibliographicItem of each duplicate list (the bibliographicItems with the same clusterId) with
+ * data from its duplicates. Used by IOService::writeBibliographicItems for the deduplicated file: the kept
+ * bibliographicItem is enriched when it is written.
+ *
+ * The constructor makes 1 pass over the bibliographicItems (in the order of the list):
+ * - the first bibliographicItem of a duplicate list is kept, the others get keptBibliographicItem = false
+ * - per duplicate list only the data of the duplicates which can be used for the kept bibliographicItem are
+ *   accumulated: the longest and shortest title, the DOIs, the first publication year and pages
+ * - when comparing 2 files, the duplicate lists with a negative clusterId (duplicates of a bibliographicItem of the OLD
+ *   file) are skipped: they are not written.
+ *
+ * enrich(...) for the kept bibliographicItem of a duplicate list:
+ * - Reply and Retraction: replace the title with the longest title of the duplicates
+ * - Clinical trials from ClinicalTrials.gov: replace the title with the shortest title of the duplicates
+ * - add the DOIs of the duplicates
+ * - add a missing publication year and pages
+ * - Cochrane: the pages in upper case (also for the Cochrane bibliographicItems without duplicates)
+ */
+// @formatter:on
+@Slf4j
+final class DuplicateListEnrichment {
+
+	private final Map<Integer, DuplicateList> duplicateLists = new HashMap<>();
+
+	DuplicateListEnrichment(List<BibliographicItem> bibliographicItems) {
+		for (BibliographicItem bibliographicItem : bibliographicItems) {
+			if (!bibliographicItem.hasCluster() || bibliographicItem.isInOldFileCluster()) {
+				continue;
+			}
+			DuplicateList duplicateList = duplicateLists.get(bibliographicItem.getClusterId());
+			if (duplicateList == null) {
+				duplicateLists.put(bibliographicItem.getClusterId(), new DuplicateList(bibliographicItem));
+			} else {
+				// Don't set keptBibliographicItem in compareSet(): trouble when multiple duplicates and no publication year
+				bibliographicItem.setKeptBibliographicItem(false);
+				duplicateList.add(bibliographicItem);
+			}
+		}
+		log.debug("Number of duplicate lists {}, and IDs of kept bibliographicItems: {}", duplicateLists.size(),
+				duplicateLists.keySet());
+	}
+
+	/*
+	 * A duplicate list is enriched only once: its data are dropped afterwards
+	 */
+	void enrich(BibliographicItem bibliographicItem) {
+		if (!bibliographicItem.hasCluster()) {
+			if (bibliographicItem.isCochrane() && bibliographicItem.getPagesOutput() != null) {
+				bibliographicItem.setPagesOutput(bibliographicItem.getPagesOutput().toUpperCase());
+			}
+			return;
+		}
+		DuplicateList duplicateList = duplicateLists.get(bibliographicItem.getClusterId());
+		if (duplicateList != null && duplicateList.kept == bibliographicItem) {
+			duplicateLists.remove(bibliographicItem.getClusterId());
+			duplicateList.enrich();
+		}
+	}
+
+	private static final class DuplicateList {
+		final BibliographicItem kept;
+		@Nullable
+		String longestTitle;
+		@Nullable
+		String shortestTitle;
+		@Nullable
+		Set<String> dois;
+		int publicationYear;
+		@Nullable
+		String pagesOutput;
+
+		DuplicateList(BibliographicItem kept) {
+			this.kept = kept;
+			addDois(kept);
+		}
+
+		void add(BibliographicItem duplicate) {
+			String title = duplicate.getTitle() != null ? duplicate.getTitle()
+					: duplicate.getTitles().isEmpty() ? null : duplicate.getTitles().getFirst();
+			if (title != null) {
+				log.debug("Duplicate {} has title: {}.", duplicate.getId(), title);
+				if (longestTitle == null || longestTitle.length() < title.length()) {
+					longestTitle = title;
+				}
+				if (shortestTitle == null || shortestTitle.length() > title.length()) {
+					shortestTitle = title;
+				}
+			}
+			addDois(duplicate);
+			if (publicationYear == 0) {
+				publicationYear = duplicate.getPublicationYear();
+			}
+			if (pagesOutput == null) {
+				pagesOutput = duplicate.getPagesOutput();
+			}
+		}
+
+		/*
+		 * In a new HashSet: the DOIs of a read bibliographicItem can't be changed, see BibliographicItem::freeze
+		 */
+		private void addDois(BibliographicItem bibliographicItem) {
+			if (!bibliographicItem.getDois().isEmpty()) {
+				if (dois == null) {
+					dois = new HashSet<>();
+				}
+				dois.addAll(bibliographicItem.getDois());
+			}
+		}
+
+		void enrich() {
+			log.debug("Kept: {}: {}", kept.getId(),
+					(kept.getTitles().isEmpty() ? "(no titles found)" : kept.getTitles().getFirst()));
+
+			// Reply and Retraction: replace the title with the longest title from the duplicates
+			if (kept.isReply() || (!kept.isClinicalTrialGov() && kept.getTitle() != null)) {
+				String title = longestTitle != null ? longestTitle : "";
+				// There are cases where not all titles are recognized as replies -> bibliographicItem.title can be null
+				if (kept.getTitle() == null || kept.getTitle().length() < title.length()) {
+					log.debug("REPLY: changing title {}\nto {}", kept.getTitle(), title);
+					kept.setTitle(title);
+				}
+			}
+			// Clinical trials from ClinicalTrials.gov: replace the title with the shortest title from the duplicates
+			if (kept.isClinicalTrialGov()) {
+				String title = shortestTitle != null ? shortestTitle : "";
+				if (kept.getTitle() == null || kept.getTitle().length() > title.length()) {
+					log.debug("Trial: changing title {}\nto {}", kept.getTitle(), title);
+					kept.setTitle(title);
+				}
+			}
+
+			if (dois != null) {
+				kept.setDois(dois);
+			}
+
+			// Add missing publication year
+			if (kept.getPublicationYear() == 0 && publicationYear != 0) {
+				kept.setPublicationYear(publicationYear);
+			}
+
+			if (kept.isCochrane() && kept.getPagesOutput() != null) {
+				kept.setPagesOutput(kept.getPagesOutput().toUpperCase());
+			}
+
+			// Add missing pagesOutput
+			if ((kept.getPagesOutput() == null || kept.getPagesOutput().isEmpty()) && pagesOutput != null) {
+				log.debug("Reached bibliographicItem without pagesOutput: {}", kept.getId());
+				kept.setPagesOutput(pagesOutput);
+			}
+
+			/*
+			 * FIXME: Should empty authors be filled in from the duplicate set? See DOI
+			 * 10.2298/sarh0902077c in test database, but the 2 duplicates have not the same
+			 * author forms: "Culafic, D." (WoS) and "Dorde, Ć" (Scopus, error)
+			 * Better example: 4605 in BIG_TEST without authors, 21391 with authors.
+			 * But bibliographicItems can have different authors: in BIG_SET 4226 (none), 21471 (Banks ...), 36519 (Cabot ...)
+			 */
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package edu.dedupendnote.services;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import lombok.extern.slf4j.Slf4j;
+
+// @formatter:off
+/*
+ * Exact duplicates: bibliographicItems which are the same in all the normalized fields which are compared
+ * (DeduplicationService::compareSet), e.g. the same record from overlapping searches in 1 database. Only the first
+ * bibliographicItem of a set of exact duplicates (the representative) takes part in the comparisons of the year sets,
+ * which are O(n^2) per year set. Afterwards label() gives the duplicates the clusterId of their representative (or the
+ * ID of the representative if it has no other duplicates), as compareSet would do for a pivot and a duplicate.
+ *
+ * - key(...): a 128 bit hash (SHA-256) of the publication year, the flags, the starting page, the title, the titles, the
+ *   authors, the DOIs, the journals, the ISSNs and ISBNs, and the reference type. The Sets are hashed in sorted order.
+ * - only bibliographicItems with a publication year, DOIs and titles have a key: 2 of them with the same key are
+ *   always duplicates for compareSet (the same DOIs, titles and authors). BibliographicItems without a publication
+ *   year are left out: they are compared in every year set and dropped from it when they have a label.
+ * - used only if the comparisons are the default ones (ComparisonService::collapsesExactDuplicates)
+ * - compareSet also changes the pivot: it gets the reply flag or the title of its duplicates after it. A pivot X
+ *   between a representative A and its exact duplicate A' in a year set would get them from A'. compareSet passes
+ *   them with YearSet when A and X are duplicates, at the place of A' in the pass of X (see successorId).
+ */
+// @formatter:on
+@Slf4j
+final class ExactDuplicates {
+
+	record Key(long high, long low) {
+	}
+
+	/*
+	 * successorId: the ID of the first compared bibliographicItem with the same publication year after the duplicate
+	 * in the list (null if there is none). The duplicate would be just before it in the year sets. position: the index
+	 * of the duplicate in the list.
+	 */
+	record Duplicate(BibliographicItem bibliographicItem, @Nullable Integer successorId, int position) {
+	}
+
+	private final Map<Key, BibliographicItem> representatives = new HashMap<>();
+	private final Map<Integer, List<Duplicate>> duplicatesOfRepresentatives = new HashMap<>();
+	private final List<BibliographicItem> duplicates = new ArrayList<>();
+	private final List<BibliographicItem> representativesOfDuplicates = new ArrayList<>();
+	private final Set<BibliographicItem> duplicateSet = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/*
+	 * The bibliographicItems which are not an exact duplicate of an earlier bibliographicItem of the list
+	 */
+	List<BibliographicItem> collapse(List<BibliographicItem> bibliographicItems) {
+		List<BibliographicItem> compared = new ArrayList<>(bibliographicItems.size());
+		for (BibliographicItem bibliographicItem : bibliographicItems) {
+			if (add(key(bibliographicItem), bibliographicItem)) {
+				compared.add(bibliographicItem);
+			}
+		}
+		placeDuplicates(bibliographicItems);
+		log.debug("Exact duplicates: {} of {} bibliographic items", duplicates.size(), bibliographicItems.size());
+		return compared;
+	}
+
+	/*
+	 * As collapse(bibliographicItems), with the keys computed while reading (YearPartitions)
+	 */
+	List<BibliographicItem> collapse(List<BibliographicItem> bibliographicItems, List<@Nullable Key> keys) {
+		List<BibliographicItem> compared = new ArrayList<>(bibliographicItems.size());
+		for (int i = 0; i < bibliographicItems.size(); i++) {
+			if (add(keys.get(i), bibliographicItems.get(i))) {
+				compared.add(bibliographicItems.get(i));
+			}
+		}
+		placeDuplicates(bibliographicItems);
+		log.debug("Exact duplicates: {} of {} bibliographic items", duplicates.size(), bibliographicItems.size());
+		return compared;
+	}
+
+	boolean isDuplicate(BibliographicItem bibliographicItem) {
+		return duplicateSet.contains(bibliographicItem);
+	}
+
+	int size() {
+		return duplicates.size();
+	}
+
+	/*
+	 * After the comparisons of the year sets
+	 */
+	void label() {
+		for (int i = 0; i < duplicates.size(); i++) {
+			BibliographicItem representative = representativesOfDuplicates.get(i);
+			if (!representative.hasCluster()) {
+				representative.setClusterId(representative.getId());
+			}
+			duplicates.get(i).setClusterId(representative.getClusterId());
+		}
+	}
+
+	/*
+	 * For 1 call of compareSet. The pivots of a year set (and so the representatives) have the publication year of the
+	 * year set, or no publication year (TwoFiles mode: then they have no key). The duplicates of a representative of
+	 * the year set would be just before their successor in it, or at the end of the publication year.
+	 */
+	YearSet yearSet(List<BibliographicItem> bibliographicItems, int year) {
+		return new YearSet(bibliographicItems, year);
+	}
+
+	final class YearSet {
+
+		private record Placed(int index, Duplicate duplicate) {
+		}
+
+		private final Map<Integer, Integer> indexes = new HashMap<>();
+		private final int end;
+		private final Map<BibliographicItem, List<Placed>> placedAfterPivots = new IdentityHashMap<>();
+		private final ArrayDeque<Placed> placedAfterPivot = new ArrayDeque<>();
+
+		private YearSet(List<BibliographicItem> bibliographicItems, int year) {
+			int last = -1;
+			if (!duplicates.isEmpty()) {
+				for (int i = 0; i < bibliographicItems.size(); i++) {
+					indexes.put(bibliographicItems.get(i).getId(), i);
+					if (bibliographicItems.get(i).getPublicationYear() == year) {
+						last = i;
+					}
+				}
+			}
+			end = last + 1;
+		}
+
+		/*
+		 * Representative (pivot) and the bibliographicItem at index are duplicates: the duplicates of representative
+		 * after index are placed in the comparisons of the bibliographicItem when it is the pivot
+		 */
+		void duplicates(BibliographicItem representative, int index, BibliographicItem bibliographicItem) {
+			for (Duplicate duplicate : duplicatesOfRepresentatives.getOrDefault(representative.getId(), List.of())) {
+				Integer successorId = duplicate.successorId();
+				Integer successorIndex = successorId != null ? indexes.get(successorId) : null;
+				int placedIndex = successorIndex != null ? successorIndex : end;
+				if (placedIndex > index) {
+					placedAfterPivots.computeIfAbsent(bibliographicItem, k -> new ArrayList<>())
+							.add(new Placed(placedIndex, duplicate));
+				}
+			}
+		}
+
+		void startPivot(BibliographicItem pivot) {
+			placedAfterPivot.clear();
+			List<Placed> placed = placedAfterPivots.remove(pivot);
+			if (placed != null) {
+				placed.sort(Comparator.comparingInt(Placed::index).thenComparingInt(pl -> pl.duplicate().position()));
+				placedAfterPivot.addAll(placed);
+			}
+		}
+
+		/*
+		 * The changes of compareSet to the pivot for the duplicates placed before index
+		 */
+		void compareBefore(BibliographicItem pivot, int index) {
+			Placed placed;
+			while ((placed = placedAfterPivot.peekFirst()) != null && placed.index() <= index) {
+				placedAfterPivot.removeFirst();
+				BibliographicItem duplicate = placed.duplicate().bibliographicItem();
+				if (duplicate.isReply()) {
+					pivot.setReply(true);
+				} else if (duplicate.getTitle() != null && pivot.getTitle() == null) {
+					pivot.setTitle(duplicate.getTitle());
+				}
+			}
+		}
+	}
+
+	private void placeDuplicates(List<BibliographicItem> bibliographicItems) {
+		// duplicates is in the order of the list
+		Duplicate[] placed = new Duplicate[duplicates.size()];
+		int d = placed.length;
+		Map<Integer, Integer> nextComparedIds = new HashMap<>();
+		for (int i = bibliographicItems.size() - 1; i >= 0; i--) {
+			BibliographicItem bibliographicItem = bibliographicItems.get(i);
+			if (duplicateSet.contains(bibliographicItem)) {
+				placed[--d] = new Duplicate(bibliographicItem,
+						nextComparedIds.get(bibliographicItem.getPublicationYear()), i);
+			} else {
+				nextComparedIds.put(bibliographicItem.getPublicationYear(), bibliographicItem.getId());
+			}
+		}
+		for (int i = 0; i < placed.length; i++) {
+			duplicatesOfRepresentatives
+					.computeIfAbsent(representativesOfDuplicates.get(i).getId(), k -> new ArrayList<>())
+					.add(placed[i]);
+		}
+	}
+
+	private boolean add(@Nullable Key key, BibliographicItem bibliographicItem) {
+		if (key == null) {
+			return true;
+		}
+		BibliographicItem representative = representatives.putIfAbsent(key, bibliographicItem);
+		if (representative == null) {
+			return true;
+		}
+		duplicates.add(bibliographicItem);
+		representativesOfDuplicates.add(representative);
+		duplicateSet.add(bibliographicItem);
+		return false;
+	}
+
+	@Nullable
+	static Key key(BibliographicItem bibliographicItem) {
+		if (bibliographicItem.getPublicationYear() == 0 || bibliographicItem.getDois().isEmpty()
+				|| bibliographicItem.getTitles().isEmpty()) {
+			return null;
+		}
+		MessageDigest digest = sha256();
+		ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES);
+		buffer.putInt(bibliographicItem.getPublicationYear());
+		buffer.putInt((bibliographicItem.isClinicalTrialGov() ? 1 : 0) | (bibliographicItem.isCochrane() ? 2 : 0)
+				| (bibliographicItem.isPhase() ? 4 : 0) | (bibliographicItem.isReply() ? 8 : 0)
+				| (bibliographicItem.isSeveralPages() ? 16 : 0));
+		digest.update(buffer.array());
+		update(digest, bibliographicItem.getPageStart());
+		update(digest, bibliographicItem.getTitle());
+		update(digest, bibliographicItem.getReferenceType());
+		update(digest, bibliographicItem.getTitles());
+		update(digest, bibliographicItem.getAllAuthors());
+		update(digest, bibliographicItem.getDois().stream().sorted().toList());
+		update(digest, bibliographicItem.getSortedJournals());
+		update(digest, bibliographicItem.getIssns().stream().sorted().toList());
+		update(digest, bibliographicItem.getIsbns().stream().sorted().toList());
+		ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+		return new Key(hash.getLong(), hash.getLong());
+	}
+
+	private static void update(MessageDigest digest, Collection<String> strings) {
+		digest.update((byte) strings.size());
+		for (String s : strings) {
+			update(digest, s);
+		}
+	}
+
+	/*
+	 * Each String is terminated by a 0 byte, null is 1 byte 1: "ab" + "c" and "a" + "bc" have different hashes
+	 */
+	private static void update(MessageDigest digest, @Nullable String s) {
+		if (s == null) {
+			digest.update((byte) 1);
+		} else {
+			digest.update(s.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
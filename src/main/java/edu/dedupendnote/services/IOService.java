@@ -1,26 +1,41 @@
 package edu.dedupendnote.services;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.SequencedSet;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.jspecify.annotations.Nullable;
 import org.springframework.stereotype.Service;
@@ -42,6 +57,8 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 public class IOService {
 
+	private static final int UPLOAD_BUFFER_SIZE = 1 << 16;
+
 	/*
 	 * The titles of bibliographicItems in these journals / books, are NOT normalized.
 	 * The format of the titles of these journals / books is the output of addNormalizedJournal
@@ -138,6 +155,11 @@ public class IOService {
 	public static final Pattern RIS_LINE_PATTERN = Pattern.compile("(^[A-Z][A-Z0-9])( {2}-[ ,\\u00A0])(.*)$");
 
 	private long countRecords(String fileName) throws IOException {
+		if (UtilitiesService.isGzipped(fileName)) {
+			try (BufferedReader br = UtilitiesService.newBufferedReader(fileName)) {
+				return br.lines().filter(l -> l.startsWith("ER  - ")).count();
+			}
+		}
 		try (Stream<String> lines = Files.lines(Path.of(fileName))) {
 			return lines.filter(l -> l.startsWith("ER  - ")).count();
 		}
@@ -150,6 +172,59 @@ public class IOService {
 		return readBibliographicItems(inputFileName, progressReporter, false);
 	}
 
+	/*
+	 * The memory for the bibliographicItems is reserved in reservation (see MemoryAdmission). The other
+	 * readBibliographicItems methods release it when the file has been read.
+	 */
+	public List<BibliographicItem> readBibliographicItems(String inputFileName, Consumer<String> progressReporter,
+			MemoryAdmission.Reservation reservation) {
+		return readBibliographicItems(inputFileName, progressReporter, false, null, reservation);
+	}
+
+	/*
+	 * readBibliographicItemsUsingSnapshot: as readBibliographicItems, but the BibliographicItems are loaded from the
+	 * snapshot in snapshotDirectory (see BibliographicItemSnapshot) if a snapshot has been made from a file with the
+	 * same content. Otherwise the input file is read and a new snapshot is written.
+	 * Used for the OLD file of deduplicateTwoFiles, which is often the same on every run.
+	 */
+	public List<BibliographicItem> readBibliographicItemsUsingSnapshot(String inputFileName, Path snapshotDirectory,
+			Consumer<String> progressReporter) {
+		try (MemoryAdmission.Reservation reservation = MemoryAdmission.heap().reserve()) {
+			return readBibliographicItemsUsingSnapshot(inputFileName, snapshotDirectory, progressReporter, reservation);
+		}
+	}
+
+	/*
+	 * The bibliographicItems loaded from a snapshot are admitted as a whole (the first SAMPLE_SIZE as sample)
+	 */
+	public List<BibliographicItem> readBibliographicItemsUsingSnapshot(String inputFileName, Path snapshotDirectory,
+			Consumer<String> progressReporter, MemoryAdmission.Reservation reservation) {
+		byte[] contentHash;
+		try {
+			contentHash = BibliographicItemSnapshot.contentHash(Path.of(inputFileName));
+		} catch (IOException e) {
+			log.error("Content hash of {} could not be computed: {}", inputFileName, e.getMessage());
+			return readBibliographicItems(inputFileName, progressReporter, reservation);
+		}
+		Path snapshotPath = BibliographicItemSnapshot.snapshotPath(snapshotDirectory, contentHash);
+		List<BibliographicItem> bibliographicItems = BibliographicItemSnapshot.read(snapshotPath, contentHash);
+		if (bibliographicItems != null) {
+			log.debug("Publications loaded from snapshot {}: {}", snapshotPath, bibliographicItems.size());
+			reservation.admit(inputFileName,
+					bibliographicItems.subList(0, Math.min(bibliographicItems.size(), MemoryAdmission.SAMPLE_SIZE)),
+					bibliographicItems.size());
+			progressReporter.accept("PROGRESS: 100");
+			return bibliographicItems;
+		}
+		bibliographicItems = readBibliographicItems(inputFileName, progressReporter, reservation);
+		try {
+			BibliographicItemSnapshot.write(bibliographicItems, snapshotPath, contentHash);
+		} catch (IOException e) {
+			log.error("Snapshot {} could not be written: {}", snapshotPath, e.getMessage());
+		}
+		return bibliographicItems;
+	}
+
 	/**
 	 * Reads a RIS file into BibliographicItem objects, optionally reading the LB (Label) field.
 	 *
@@ -165,6 +240,181 @@ public class IOService {
 	 */
 	public List<BibliographicItem> readBibliographicItems(String inputFileName, Consumer<String> progressReporter,
 			boolean includeLabelField) {
+		try (MemoryAdmission.Reservation reservation = MemoryAdmission.heap().reserve()) {
+			return readBibliographicItems(inputFileName, progressReporter, includeLabelField, null, reservation);
+		}
+	}
+
+	/*
+	 * With yearPartitions (out-of-core mode), the bibliographicItems are written to the run files of yearPartitions
+	 * and the light copies are returned. Without reservation the file is not admitted (out-of-core mode).
+	 */
+	List<BibliographicItem> readBibliographicItems(String inputFileName, Consumer<String> progressReporter,
+			boolean includeLabelField, @Nullable YearPartitions yearPartitions,
+			MemoryAdmission.@Nullable Reservation reservation) {
+		boolean hasBom = UtilitiesService.detectBom(inputFileName);
+		long totalRecords;
+		try {
+			totalRecords = countRecords(inputFileName);
+		} catch (IOException e) {
+			totalRecords = 0;
+		}
+		if (totalRecords == 0) {
+			throw new InvalidRisFileException("No EndNote records found in the the input file. "
+					+ "The input file is not an Export as RIS-file from an EndNote library!");
+		}
+
+		try (BufferedReader br = UtilitiesService.newBufferedReader(inputFileName)) {
+			if (hasBom) {
+				br.skip(1);
+			}
+			long total = totalRecords;
+			return readBibliographicItems(br, inputFileName, n -> (int) (100L * n / total), n -> total,
+					progressReporter, includeLabelField, yearPartitions, reservation);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new ArrayList<>();
+		}
+	}
+
+	// @formatter:off
+	/*
+	 * readBibliographicItems for an input stream which is still arriving (DeduplicationService::deduplicateUpload).
+	 * The bytes are saved to inputFileName while they are parsed and normalized, so that the write methods can read the
+	 * input file afterwards. Reading the upload and reading the RIS records overlap: when the last byte has arrived,
+	 * the bibliographicItems are ready for the comparisons.
+	 *
+	 * - the upload may be gzip compressed (detected by the magic number). The file is saved compressed.
+	 * - the number of records is not known in advance: the progress is reported as the percentage of contentLength
+	 *   (the progress is not reported if contentLength < 0 (unknown))
+	 * - an upload without records throws the same InvalidRisFileException as readBibliographicItems(inputFileName, ...)
+	 * - an upload of more than maxBytes (also one without contentLength) throws an UploadTooLargeException as soon as
+	 *   the limit has been passed. The file with the bytes which have been saved is deleted.
+	 */
+	// @formatter:on
+	public List<BibliographicItem> readBibliographicItems(InputStream inputStream, long contentLength, long maxBytes,
+			String inputFileName, Consumer<String> progressReporter) {
+		try (MemoryAdmission.Reservation reservation = MemoryAdmission.heap().reserve()) {
+			return readBibliographicItems(inputStream, contentLength, maxBytes, inputFileName, progressReporter,
+					reservation);
+		}
+	}
+
+	public List<BibliographicItem> readBibliographicItems(InputStream inputStream, long contentLength, long maxBytes,
+			String inputFileName, Consumer<String> progressReporter, MemoryAdmission.Reservation reservation) {
+		List<BibliographicItem> bibliographicItems;
+		try (UploadInputStream uploadInputStream = new UploadInputStream(inputStream, Path.of(inputFileName),
+				maxBytes)) {
+			BufferedInputStream bufferedInputStream = new BufferedInputStream(uploadInputStream, UPLOAD_BUFFER_SIZE);
+			bufferedInputStream.mark(2);
+			boolean gzipped = bufferedInputStream.read() == (GZIPInputStream.GZIP_MAGIC & 0xFF)
+					&& bufferedInputStream.read() == (GZIPInputStream.GZIP_MAGIC >> 8);
+			bufferedInputStream.reset();
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					gzipped ? new GZIPInputStream(bufferedInputStream, UPLOAD_BUFFER_SIZE) : bufferedInputStream,
+					StandardCharsets.UTF_8), UPLOAD_BUFFER_SIZE);
+			br.mark(1);
+			if (br.read() != '\uFEFF') {
+				br.reset();
+			}
+			bibliographicItems = readBibliographicItems(br, inputFileName,
+					n -> contentLength > 0 ? (int) (100L * uploadInputStream.bytesRead / contentLength) : -1,
+					n -> contentLength > 0 && uploadInputStream.bytesRead > 0
+							? n * contentLength / uploadInputStream.bytesRead
+							: -1,
+					progressReporter, false, null, reservation);
+			// bytes after the last record (or after the end of the gzip data) must also be saved
+			bufferedInputStream.transferTo(OutputStream.nullOutputStream());
+		} catch (IOException e) {
+			log.error("Upload to {} failed: {}", inputFileName, e.getMessage());
+			throw new InvalidRisFileException("The upload of the input file failed: " + e.getMessage());
+		} catch (UploadTooLargeException e) {
+			log.error("Upload to {} stopped: {}", inputFileName, e.getMessage());
+			try {
+				Files.deleteIfExists(Path.of(inputFileName));
+			} catch (IOException e1) {
+				log.error("Upload {} could not be deleted: {}", inputFileName, e1.getMessage());
+			}
+			throw e;
+		}
+		if (bibliographicItems.isEmpty()) {
+			throw new InvalidRisFileException("No EndNote records found in the the input file. "
+					+ "The input file is not an Export as RIS-file from an EndNote library!");
+		}
+		return bibliographicItems;
+	}
+
+	/*
+	 * Saves the bytes read from the upload to a file, and counts them for the progress and for the maximum size.
+	 * UploadTooLargeException is an InvalidRisFileException: readBibliographicItems(BufferedReader, ...) passes it on
+	 * (an IOException would end the reading as if the file were complete).
+	 */
+	private static final class UploadInputStream extends FilterInputStream {
+		private final OutputStream outputStream;
+		private final long maxBytes;
+		long bytesRead = 0;
+
+		UploadInputStream(InputStream inputStream, Path path, long maxBytes) throws IOException {
+			super(inputStream);
+			this.outputStream = new BufferedOutputStream(Files.newOutputStream(path), UPLOAD_BUFFER_SIZE);
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count(1);
+				outputStream.write(b);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+				outputStream.write(b, off, n);
+			}
+			return n;
+		}
+
+		private void count(int n) {
+			bytesRead += n;
+			if (bytesRead > maxBytes) {
+				throw new UploadTooLargeException(maxBytes);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try (outputStream) {
+				super.close();
+			}
+		}
+	}
+
+	// @formatter:off
+	/*
+	 * The common part of both readBibliographicItems methods. percentageRead returns the progress (as a percentage) when
+	 * n bibliographicItems have been read, or -1 if it is unknown. numberOfItems returns the (estimated) number of
+	 * bibliographicItems of the file when n have been read, or -1 if it is unknown.
+	 *
+	 * The input is checked while it is read, and reading stops with an InvalidRisFileException at the first error
+	 * (with the line number), not after the whole file has been read and normalized:
+	 * - an ID field which is not a number
+	 * - an ID which has already been used in the file (e.g. an export of 2 merged EndNote libraries).
+	 *   Records without ID get an ID (missingId) which can also collide with the ID of another record.
+	 * - a file which will not fit in the memory (see MemoryAdmission), checked every MemoryAdmission.SAMPLE_SIZE records
+	 *   and at the end (not without reservation: out-of-core mode). If numberOfItems is unknown (an upload without
+	 *   content length), the memory for the next SAMPLE_SIZE records is reserved.
+	 */
+	// @formatter:on
+	private List<BibliographicItem> readBibliographicItems(BufferedReader br, String inputFileName,
+			IntUnaryOperator percentageRead, IntToLongFunction numberOfItems, Consumer<String> progressReporter,
+			boolean includeLabelField, @Nullable YearPartitions yearPartitions,
+			MemoryAdmission.@Nullable Reservation reservation) {
 		List<BibliographicItem> bibliographicItems = new ArrayList<>();
 		String fieldContent = null;
 		String fieldName = null;
@@ -180,29 +430,20 @@ public class IOService {
 		String journalCache = null;
 		BibliographicItem bibliographicItem = new BibliographicItem();
 
-		boolean hasBom = UtilitiesService.detectBom(inputFileName);
 		int missingId = 1;
-		long totalRecords;
-		try {
-			totalRecords = countRecords(inputFileName);
-		} catch (IOException e) {
-			totalRecords = 0;
-		}
-		if (totalRecords == 0) {
-			throw new InvalidRisFileException("No EndNote records found in the the input file. "
-					+ "The input file is not an Export as RIS-file from an EndNote library!");
-		}
-
 		int lastPct = -1;
+		RecordIdSet recordIds = new RecordIdSet();
+		int lineNumber = 0;
+		int idLineNumber = 0;
+		StringPool stringPool = new StringPool();
+		NormalizationCache normalizationCache = new NormalizationCache(NormalizationCache.DEFAULT_CAPACITY, stringPool);
 
 		// Line starting with "TY - " triggers creation of record, line starting with
 		// "ER - " signals end of record
-		try (BufferedReader br = new BufferedReader(new FileReader(inputFileName))) {
-			if (hasBom) {
-				br.skip(1);
-			}
+		try {
 			String line;
 			while ((line = br.readLine()) != null) {
+				lineNumber++;
 				line = NormalizationService.normalizeHyphensAndWhitespace(line);
 				Matcher matcher = RIS_LINE_PATTERN.matcher(line);
 				if (matcher.matches()) {
@@ -218,10 +459,10 @@ public class IOService {
 						if (fieldContent.contains("; ")) {
 							List<String> authors = Arrays.asList(fieldContent.split("; "));
 							for (String author : authors) {
-								addNormalizedAuthor(author, bibliographicItem);
+								addNormalizedAuthor(author, bibliographicItem, normalizationCache);
 							}
 						} else {
-							addNormalizedAuthor(fieldContent, bibliographicItem);
+							addNormalizedAuthor(fieldContent, bibliographicItem, normalizationCache);
 						}
 						break;
 					case "C7": // article number (Scopus and WoS when imported as RIS format)
@@ -245,6 +486,13 @@ public class IOService {
 					case "ER":
 						if (bibliographicItem.getId() == 0) {
 							bibliographicItem.setId(missingId++);
+							idLineNumber = lineNumber;
+						}
+						if (!recordIds.add(bibliographicItem.getId())) {
+							throw new InvalidRisFileException("ERROR: The IDs of the bibliographic items of input file "
+									+ inputFileName + " are not unique (ID " + bibliographicItem.getId() + " on line "
+									+ idLineNumber
+									+ " has already been used). The input file is not an Export as RIS-file from 1 EndNote library!");
 						}
 						if (bibliographicItem.isClinicalTrialGov()) {
 							bibliographicItem.getAuthors().clear();
@@ -266,13 +514,30 @@ public class IOService {
 						if (bibliographicItem.isSeveralPages) {
 							addReversedTitles(bibliographicItem);
 						}
-						bibliographicItems.add(bibliographicItem);
-						if (totalRecords > 0) {
-							int newPct = (int) (100L * bibliographicItems.size() / totalRecords);
-							if (newPct != lastPct) {
-								progressReporter.accept("PROGRESS: " + newPct);
-								lastPct = newPct;
+						internFields(bibliographicItem, stringPool);
+						bibliographicItem.freeze();
+						if (yearPartitions != null) {
+							try {
+								bibliographicItems.add(yearPartitions.spill(bibliographicItem));
+							} catch (IOException e) {
+								throw new InvalidRisFileException("ERROR: The bibliographic items of input file "
+										+ inputFileName + " could not be saved for the out-of-core mode: "
+										+ e.getMessage());
 							}
+						} else {
+							bibliographicItems.add(bibliographicItem);
+						}
+						if (reservation != null && bibliographicItems.size() % MemoryAdmission.SAMPLE_SIZE == 0) {
+							long estimatedNumberOfItems = numberOfItems.applyAsLong(bibliographicItems.size());
+							reservation.admit(inputFileName,
+									bibliographicItems.subList(0, MemoryAdmission.SAMPLE_SIZE),
+									estimatedNumberOfItems >= 0 ? estimatedNumberOfItems
+											: bibliographicItems.size() + MemoryAdmission.SAMPLE_SIZE);
+						}
+						int newPct = percentageRead.applyAsInt(bibliographicItems.size());
+						if (newPct >= 0 && newPct != lastPct) {
+							progressReporter.accept("PROGRESS: " + newPct);
+							lastPct = newPct;
 						}
 
 						journalCache = null;
@@ -288,27 +553,34 @@ public class IOService {
 							bibliographicItem.setId(Integer.parseInt(fieldContent));
 						} catch (NumberFormatException e) {
 							throw new InvalidRisFileException(
-									"The input file contains ID fields which are not numbers. "
+									"The input file contains ID fields which are not numbers (line " + lineNumber
+											+ ": \"" + line + "\"). "
 											+ "The input file is not an Export as RIS-file from an EndNote library!");
 						}
+						idLineNumber = lineNumber;
 						// log.debug("Read ID {}", fieldContent);
 						break;
 					case "J2": // Alternate journal
-						addNormalizedJournal(fieldContent, bibliographicItem, fieldName);
+						addNormalizedJournal(fieldContent, bibliographicItem, fieldName, normalizationCache);
 						break;
 					case "LB": // Label (deduplication group ID written by mark mode)
 						if (includeLabelField) {
 							// LB is a single short integer ID; continuation lines are not expected
-							bibliographicItem.setLabel(fieldContent);
+							try {
+								bibliographicItem.setClusterId(Integer.parseInt(fieldContent.strip()));
+							} catch (NumberFormatException e) {
+								log.debug("Label {} of bibliographicItem {} is not a duplicate list ID", fieldContent,
+										bibliographicItem.getId());
+							}
 						}
 						break;
 					case "OP":
 						// in PubMed: original title, in Web of Science (at least for conference papers): conference
 						// title
 						if ("CONF".equals(bibliographicItem.getReferenceType())) {
-							addNormalizedJournal(fieldContent, bibliographicItem, fieldName);
+							addNormalizedJournal(fieldContent, bibliographicItem, fieldName, normalizationCache);
 						} else {
-							addNormalizedTitle(fieldContent, bibliographicItem);
+							addNormalizedTitle(fieldContent, bibliographicItem, normalizationCache);
 						}
 						break;
 					case "PY": // BibliographicItem year
@@ -337,7 +609,7 @@ public class IOService {
 					 * See below in continuation line of TI for PubMed chapters
 					 */
 					case "ST": // Original Title in Scopus
-						addNormalizedTitle(fieldContent, bibliographicItem);
+						addNormalizedTitle(fieldContent, bibliographicItem, normalizationCache);
 						break;
 					case "T2": // Journal title / Book title
 						journalCache = fieldContent;
@@ -345,7 +617,7 @@ public class IOService {
 							fieldContent = fieldContent.replace("http:", "https:");
 							bibliographicItem.setClinicalTrialGov(true);
 						}
-						addNormalizedJournal(fieldContent, bibliographicItem, fieldName);
+						addNormalizedJournal(fieldContent, bibliographicItem, fieldName, normalizationCache);
 						break;
 					// @formatter:off
 					/*
@@ -379,8 +651,8 @@ public class IOService {
 					case "T3": // Book section
 						if (!fieldContent.startsWith("Retract") && !CONFERENCE_PATTERN.matcher(fieldContent).matches()
 								&& fieldContent.length() > 3) {
-							addNormalizedJournal(fieldContent, bibliographicItem, fieldName);
-							addNormalizedTitle(fieldContent, bibliographicItem);
+							addNormalizedJournal(fieldContent, bibliographicItem, fieldName, normalizationCache);
+							addNormalizedTitle(fieldContent, bibliographicItem, normalizationCache);
 
 							// This commented out code was an unsuccessful attempt to make better choices with the
 							// McKeown test file.
@@ -410,7 +682,7 @@ public class IOService {
 					// ??? in Embase the original title is on the continuation line of ST and TI:
 					// "Een 45-jarige patiente met chronische koliekachtige abdominale pijn". Not found in test set!
 					case "TI": // Title
-						addNormalizedTitle(fieldContent, bibliographicItem);
+						addNormalizedTitle(fieldContent, bibliographicItem, normalizationCache);
 						// Don't do this in IOService::readBibliographicItems because these 2 patterns are only applied to TI
 						// field, not to the other fields which are added to List<String> titles
 						if (REPLY_PATTERN.matcher(fieldContent.toLowerCase()).matches()
@@ -436,13 +708,14 @@ public class IOService {
 						if (fieldContent.startsWith("http") && fieldContent.contains("//clinicaltrials.gov")) {
 							fieldContent = fieldContent.replace("http:", "https:");
 							bibliographicItem.setClinicalTrialGov(true);
-							addNormalizedJournal(fieldContent, bibliographicItem, fieldName);
+							addNormalizedJournal(fieldContent, bibliographicItem, fieldName, normalizationCache);
 						}
 						previousFieldName = fieldName;
 						break;
 					case "VL":
 						if (fieldContent.length() > 10 && journalCache != null) {
-							addNormalizedJournal(journalCache + ". " + fieldContent, bibliographicItem, fieldName);
+							addNormalizedJournal(journalCache + ". " + fieldContent, bibliographicItem, fieldName,
+									normalizationCache);
 						}
 						previousFieldName = fieldName;
 						break;
@@ -484,19 +757,19 @@ public class IOService {
 						 */
 						if ("CHAP".equals(bibliographicItem.getReferenceType())) {
 							bibliographicItem.getTitles().clear();
-							addNormalizedTitle(line, bibliographicItem);
+							addNormalizedTitle(line, bibliographicItem, normalizationCache);
 						} else {
 							/*
 							* EMBASE original title (at least for articles).
 							*/
-							addNormalizedTitle(line, bibliographicItem);
+							addNormalizedTitle(line, bibliographicItem, normalizationCache);
 						}
 						break;
 					case "UR":
 						if (line.startsWith("http") && line.contains("//clinicaltrials.gov")) {
 							line = line.replace("http:", "https:");
 							bibliographicItem.setClinicalTrialGov(true);
-							addNormalizedJournal(line, bibliographicItem, "UR");
+							addNormalizedJournal(line, bibliographicItem, "UR", normalizationCache);
 						}
 						break;
 					default:
@@ -506,6 +779,9 @@ public class IOService {
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
+		} catch (InvalidRisFileException e) {
+			log.error("Reading {} stopped: {}", inputFileName, e.getMessage());
+			throw e;
 		} catch (NumberFormatException e) {
 			log.error("In field {} with content {}: Number could not be parsed", fieldName, fieldContent);
 			e.printStackTrace();
@@ -514,11 +790,29 @@ public class IOService {
 			e.printStackTrace();
 		}
 		log.debug("Publications read: {}", bibliographicItems.size());
+		log.debug("Normalization cache hits: {}, distinct field values: {}", normalizationCache.hitRates(),
+				stringPool.size());
+		// also a file with less than SAMPLE_SIZE records
+		if (reservation != null && !bibliographicItems.isEmpty()) {
+			reservation.admit(inputFileName,
+					bibliographicItems.subList(0, Math.min(bibliographicItems.size(), MemoryAdmission.SAMPLE_SIZE)),
+					bibliographicItems.size());
+		}
 		return bibliographicItems;
 	}
 
 	public static void addNormalizedAuthor(String fieldContent, BibliographicItem bibliographicItem) {
-		AuthorRecord normalizedAuthor = AuthorsNormalizationService.normalizeInputAuthors(fieldContent);
+		addNormalizedAuthor(fieldContent, bibliographicItem, null);
+	}
+
+	/*
+	 * With a NormalizationCache (readBibliographicItems) the normalization is done only once for the same field content
+	 */
+	static void addNormalizedAuthor(String fieldContent, BibliographicItem bibliographicItem,
+			@Nullable NormalizationCache normalizationCache) {
+		AuthorRecord normalizedAuthor = normalizationCache == null
+				? AuthorsNormalizationService.normalizeInputAuthors(fieldContent)
+				: normalizationCache.normalizeInputAuthors(fieldContent);
 		if (normalizedAuthor.author() != null) {
 			bibliographicItem.getAuthors().add(normalizedAuthor.author());
 			bibliographicItem.getAuthorsTransposed().add(normalizedAuthor.authorTransposed());
@@ -530,10 +824,17 @@ public class IOService {
 
 	public static void addNormalizedJournal(String fieldContent, BibliographicItem bibliographicItem,
 			String fieldName) {
+		addNormalizedJournal(fieldContent, bibliographicItem, fieldName, null);
+	}
+
+	static void addNormalizedJournal(String fieldContent, BibliographicItem bibliographicItem, String fieldName,
+			@Nullable NormalizationCache normalizationCache) {
 		if (fieldContent.toLowerCase().contains("cochrane")) {
 			bibliographicItem.setCochrane(true);
 		}
-		bibliographicItem.getJournals().addAll(JournalsNormalizationService.normalizeInputJournals(fieldContent, fieldName));
+		bibliographicItem.addJournals(normalizationCache == null
+				? JournalsNormalizationService.normalizeInputJournals(fieldContent, fieldName)
+				: normalizationCache.normalizeInputJournals(fieldContent, fieldName));
 	}
 
 	public static void addNormalizedPages(Map<String, String> pagesInputMap, BibliographicItem bibliographicItem) {
@@ -553,11 +854,18 @@ public class IOService {
 	}
 
 	public static void addNormalizedTitle(String fieldContent, BibliographicItem bibliographicItem) {
-		if (UtilitiesService.setsContainSameString(skipNormalizationTitleFor, bibliographicItem.getJournals())) {
+		addNormalizedTitle(fieldContent, bibliographicItem, null);
+	}
+
+	static void addNormalizedTitle(String fieldContent, BibliographicItem bibliographicItem,
+			@Nullable NormalizationCache normalizationCache) {
+		if (bibliographicItem.hasJournalIn(skipNormalizationTitleFor)) {
 			bibliographicItem.getTitles().clear();
 			bibliographicItem.getTitles().add(fieldContent);
 		} else {
-			TitleRecord normalizedTitle = TitlesNormalizationService.normalizeInputTitles(fieldContent);
+			TitleRecord normalizedTitle = normalizationCache == null
+					? TitlesNormalizationService.normalizeInputTitles(fieldContent)
+					: normalizationCache.normalizeInputTitles(fieldContent);
 			bibliographicItem.getTitles().addAll(normalizedTitle.titles());
 			if (normalizedTitle.originalTitle() != null) {
 				bibliographicItem.setTitle(normalizedTitle.originalTitle());
@@ -566,7 +874,7 @@ public class IOService {
 	}
 
 	public static void addReversedTitles(BibliographicItem bibliographicItem) {
-		if (!UtilitiesService.setsContainSameString(skipNormalizationTitleFor, bibliographicItem.getJournals())) {
+		if (!bibliographicItem.hasJournalIn(skipNormalizationTitleFor)) {
 			SequencedSet<String> titles = bibliographicItem.getTitles();
 			if (!titles.isEmpty()) {
 				List<String> reversed = new ArrayList<>();
@@ -578,6 +886,20 @@ public class IOService {
 		}
 	}
 
+	/*
+	 * The fields which are not normalized by the NormalizationCache. The authors, titles and journals from the
+	 * NormalizationCache are already in the StringPool.
+	 */
+	private static void internFields(BibliographicItem bibliographicItem, StringPool stringPool) {
+		bibliographicItem.setReferenceType(stringPool.internNullable(bibliographicItem.getReferenceType()));
+		bibliographicItem.setPageStart(stringPool.internNullable(bibliographicItem.getPageStart()));
+		bibliographicItem.setPagesOutput(stringPool.internNullable(bibliographicItem.getPagesOutput()));
+		stringPool.internAll(bibliographicItem.getAllAuthors());
+		stringPool.internAll(bibliographicItem.getDois());
+		stringPool.internAll(bibliographicItem.getIsbns());
+		stringPool.internAll(bibliographicItem.getIssns());
+	}
+
 	public static void fillAllAuthors(BibliographicItem bibliographicItem) {
 		List<String> authors = bibliographicItem.getAuthors();
 		if (authors.isEmpty()) {
@@ -605,99 +927,95 @@ public class IOService {
 	 * - Absent Journal Name (T2) is copied from J2 (or filed in based on DOI foor SSRN): for embase.com records
 	 *   (but no check on this origin!)
 	 *
-	 * bibliographicItems are read into a TreeMap, with continuation lines added. 
+	 * bibliographicItems which need changes are read into a RisRecord, with continuation lines added. 
 	 * writebibliographicItems(...) does the replacements, and writes to the output file.
 	 */
-	// @formatter:off
+	// @formatter:on
 	public int writeDeduplicatedBibliographicItems(List<BibliographicItem> bibliographicItems, String inputFileName, String outputFileName) {
-		log.debug("Start writing to file {}", outputFileName);
-		List<BibliographicItem> bibliographicItemsToKeep = bibliographicItems.stream().filter(BibliographicItem::isKeptBibliographicItem).toList();
-		log.debug("Publications to be kept: {}", bibliographicItemsToKeep.size());
+		return writeDeduplicatedBibliographicItems(bibliographicItems, inputFileName, outputFileName, r -> true);
+	}
 
-		Map<Integer, BibliographicItem> recordIdMap = bibliographicItems.stream()
-			.filter(p -> p.getId() > 0)
-			.collect(Collectors.toMap(BibliographicItem::getId, Function.identity()));
+	/*
+	 * Only the kept bibliographicItems which pass the deduplicatedFilter are written (deduplicateTwoFiles: not the
+	 * bibliographicItems of the OLD file). All bibliographicItems must be passed: the first bibliographicItem of a
+	 * duplicate list is kept (see DuplicateListEnrichment).
+	 */
+	public int writeDeduplicatedBibliographicItems(List<BibliographicItem> bibliographicItems, String inputFileName,
+			String outputFileName, Predicate<BibliographicItem> deduplicatedFilter) {
+		return writeBibliographicItems(bibliographicItems, inputFileName, outputFileName, null, deduplicatedFilter)
+				.deduplicated();
+	}
 
-		int numberWritten = 0;
-		int lineNumber = 0;
-		String fieldContent = null;
-		String fieldName = null;
-		String previousFieldName = "XYZ";
-		Map<String, String> map = new TreeMap<>();
+	public int writeMarkedBibliographicItems(List<BibliographicItem> bibliographicItems, String inputFileName, String outputFileName) {
+		return writeBibliographicItems(bibliographicItems, inputFileName, null, outputFileName, r -> true).marked();
+	}
 
-		boolean hasBom = UtilitiesService.detectBom(inputFileName);
+	/*
+	 * Writes the deduplicated file and the marked file in 1 pass over the input file (DeduplicationMode.BOTH).
+	 * All bibliographicItems are written to the marked file (with their label), only the kept bibliographicItems which
+	 * pass the deduplicatedFilter are written (enriched) to the deduplicated file.
+	 */
+	public NumbersWritten writeDeduplicatedAndMarkedBibliographicItems(List<BibliographicItem> bibliographicItems,
+			String inputFileName, String deduplicatedFileName, String markedFileName,
+			Predicate<BibliographicItem> deduplicatedFilter) {
+		return writeBibliographicItems(bibliographicItems, inputFileName, deduplicatedFileName, markedFileName,
+				deduplicatedFilter);
+	}
 
-		try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFileName));
-				BufferedReader br = new BufferedReader(new FileReader(inputFileName))) {
-			if (hasBom) {
-				br.skip(1);
-			}
-			String line;
-			BibliographicItem bibliographicItem = null;
-			int phantomId = 0;
-			String realId = null;
+	public record NumbersWritten(int deduplicated, int marked) {}
 
-			while ((line = br.readLine()) != null) {
-				lineNumber++;
-				line = NormalizationService.normalizeHyphensAndWhitespace(line);
-				Matcher matcher = RIS_LINE_PATTERN.matcher(line);
-				if (matcher.matches()) {
-					fieldName = matcher.group(1);
-					fieldContent = matcher.group(3);
-					previousFieldName = "XYZ";
-					switch (fieldName) {
-					case "ER":
-						map.put(fieldName, fieldContent);
-						phantomId++;
-						if (realId == null) {
-							bibliographicItem = recordIdMap.get(phantomId);
-							if (bibliographicItem != null) {
-								bibliographicItem.setId(phantomId);
-								map.put("ID", Integer.toString(phantomId));
-							}
-						}
-						if (bibliographicItem != null && bibliographicItem.isKeptBibliographicItem()) {
-							writeBibliographicItem(map, bibliographicItem, bw, true);
-							numberWritten++;
-						}
-						map.clear();
-						realId = null;
-						break;
-					case "ID": // EndNote BibliographicItem number
-						map.put(fieldName, fieldContent);
-						realId = fieldContent;
-						bibliographicItem = recordIdMap.get(Integer.parseInt(realId));
-						break;
-					default:
-						if (map.containsKey(fieldName)) {
-							if (line.startsWith(fieldName)) {
-//								map.put(fieldName, map.get(fieldName) + "\n" + fieldContent);
-								map.put(fieldName, map.get(fieldName) + "\n" + line);
-							} else {
-								map.put(fieldName, map.get(fieldName) + "\n" + line);
-							}
-						} else {
-							map.put(fieldName, fieldContent);
-						}
-						previousFieldName = fieldName;
-						break;
-					}
-				} else { // continuation line
-					map.put(previousFieldName, map.get(previousFieldName) + "\n" + line);
-				}
+	/*
+	 * 1 output file of writeBibliographicItems, with its own RisRecord and RisRecordSpan because the deduplicated
+	 * output (enhance = true) changes the record and keeps the LB field of the input, the marked output replaces it.
+	 */
+	private static final class RisOutput implements Closeable {
+		final boolean enhance;
+		final RisRecord risRecord = new RisRecord();
+		final RisRecordSpan span;
+		final FileChannel channel;
+		final BufferedWriter bw;
+		int numberWritten = 0;
+		int numberCopied = 0;
+
+		RisOutput(String outputFileName, boolean enhance) throws IOException {
+			this.enhance = enhance;
+			this.span = new RisRecordSpan(enhance);
+			this.channel = FileChannel.open(Path.of(outputFileName), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			this.bw = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void close() throws IOException {
+			try (channel) {
+				bw.close();
 			}
-		} catch (IOException e) {
-            String message = "IOException while writing deduplicated records to %s at line %d: %s".formatted(outputFileName, lineNumber, e.getMessage());
-            log.error(message, e);
-            // Consider re-throwing the exception or handling it in another appropriate way
-            throw new RuntimeException(message, e);
 		}
-		log.debug("Finished writing to file. # records: {}", numberWritten);
-		return numberWritten;
 	}
 
-	public int writeMarkedBibliographicItems(List<BibliographicItem> bibliographicItems, String inputFileName, String outputFileName) {
-		log.debug("Start writing to file {}", outputFileName);
+	// @formatter:off
+	/*
+	 * Common loop for writeDeduplicatedBibliographicItems (deduplicatedFileName), writeMarkedBibliographicItems
+	 * (markedFileName) and writeDeduplicatedAndMarkedBibliographicItems (both file names).
+	 *
+	 * The lines of a record are collected until the ER field. Records which writeBibliographicItem would write unchanged
+	 * (see RisRecordSpan) are copied byte for byte from the input file with FileChannel::transferTo. Only the other
+	 * records are put into the RisRecord and rewritten by writeBibliographicItem.
+	 *
+	 * In Mark mode all records without a label are copied, in Remove mode only the kept records where DOI, pages, title,
+	 * year, ... are not changed (mostly records without DOI, because the DOIs are always rewritten as "https://doi.org/...").
+	 *
+	 * For the deduplicated file the kept bibliographicItems are enriched with the data of their duplicates just before
+	 * they are written (DuplicateListEnrichment), there is no separate pass over the duplicate lists.
+	 */
+	// @formatter:on
+	private NumbersWritten writeBibliographicItems(List<BibliographicItem> bibliographicItems, String inputFileName,
+			@Nullable String deduplicatedFileName, @Nullable String markedFileName,
+			Predicate<BibliographicItem> deduplicatedFilter) {
+		log.debug("Start writing to file(s) {} {}", deduplicatedFileName, markedFileName);
+		DuplicateListEnrichment enrichment = deduplicatedFileName != null
+				? new DuplicateListEnrichment(bibliographicItems)
+				: null;
 		List<BibliographicItem> bibliographicItemsToKeep = bibliographicItems.stream().filter(BibliographicItem::isKeptBibliographicItem).toList();
 		log.debug("Publications to be kept: {}", bibliographicItemsToKeep.size());
 
@@ -705,149 +1023,206 @@ public class IOService {
 			.filter(p -> p.getId() > 0)
 			.collect(Collectors.toMap(BibliographicItem::getId, Function.identity()));
 
-		int numberWritten = 0;
-		String fieldContent = null;
-		String fieldName = null;
-		String previousFieldName = "XYZ";
-		Map<String, String> map = new TreeMap<>();
-
-		boolean hasBom = UtilitiesService.detectBom(inputFileName);
+		int lineNumber = 0;
+		List<RisOutput> outputs = new ArrayList<>(2);
+		RisOutput deduplicatedOutput = null;
+		RisOutput markedOutput = null;
 
-		try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFileName));
-				BufferedReader br = new BufferedReader(new FileReader(inputFileName))) {
-			if (hasBom) {
-				br.skip(1);
+		// the byte offsets of a gzip compressed input file can't be used for copying records verbatim
+		boolean gzipped = UtilitiesService.isGzipped(inputFileName);
+		try (RisLineReader reader = new RisLineReader(UtilitiesService.newInputStream(inputFileName));
+				@Nullable FileChannel inputChannel = gzipped ? null : FileChannel.open(Path.of(inputFileName), StandardOpenOption.READ)) {
+			if (deduplicatedFileName != null) {
+				deduplicatedOutput = new RisOutput(deduplicatedFileName, true);
+				outputs.add(deduplicatedOutput);
 			}
-			String line;
+			if (markedFileName != null) {
+				markedOutput = new RisOutput(markedFileName, false);
+				outputs.add(markedOutput);
+			}
+			String rawLine;
 			BibliographicItem bibliographicItem = null;
 			int phantomId = 0;
 			String realId = null;
 
-			while ((line = br.readLine()) != null) {
-				line = NormalizationService.normalizeHyphensAndWhitespace(line);
+			while ((rawLine = reader.readLine()) != null) {
+				lineNumber++;
+				String line = NormalizationService.normalizeHyphensAndWhitespace(rawLine);
 				Matcher matcher = RIS_LINE_PATTERN.matcher(line);
-				if (matcher.matches()) {
-					fieldName = matcher.group(1);
-					fieldContent = matcher.group(3);
-					previousFieldName = "XYZ";
-					switch (fieldName) {
-					case "ER":
-						phantomId++;
-						if (realId == null) {
-							bibliographicItem = recordIdMap.get(phantomId);
-							if (bibliographicItem != null) {
-								bibliographicItem.setId(phantomId);
-							}
-							map.put("ID", Integer.toString(phantomId));
+				if (!matcher.matches()) { // continuation line
+					for (RisOutput output : outputs) {
+						output.span.addLine(rawLine, line, null, null, reader.getLineStart(), reader.getLineEnd(), reader.lineEndsWithLineFeed());
+						output.risRecord.addContinuationLine(line);
+					}
+					continue;
+				}
+				String fieldName = matcher.group(1);
+				String fieldContent = matcher.group(3);
+				for (RisOutput output : outputs) {
+					output.span.addLine(rawLine, line, fieldName, fieldContent, reader.getLineStart(), reader.getLineEnd(), reader.lineEndsWithLineFeed());
+				}
+				switch (fieldName) {
+				case "ER":
+					phantomId++;
+					if (realId == null) {
+						bibliographicItem = recordIdMap.get(phantomId);
+						if (bibliographicItem != null) {
+							bibliographicItem.setId(phantomId);
 						}
-						if (bibliographicItem != null && bibliographicItem.isKeptBibliographicItem()) {
-							map.put(fieldName, fieldContent);
-							if (bibliographicItem.getLabel() != null) {
-								map.put("LB", bibliographicItem.getLabel());
-							}
-							writeBibliographicItem(map, bibliographicItem, bw, false);
-							numberWritten++;
+					}
+					if (bibliographicItem != null) {
+						if (enrichment != null && bibliographicItem.isKeptBibliographicItem()) {
+							enrichment.enrich(bibliographicItem);
 						}
-						map.clear();
-						realId = null;
-						break;
-					case "ID": // EndNote BibliographicItem number
-						map.put(fieldName, fieldContent);
-						realId = fieldContent;
-						bibliographicItem = recordIdMap.get(Integer.parseInt(realId));
-						break;
-					case "LB":
-						break; // to ensure that the present Label is not used.
-					default:
-						if (map.containsKey(fieldName)) {
-							map.put(fieldName, map.get(fieldName) + "\n" + line);
+						if (deduplicatedOutput != null && bibliographicItem.isKeptBibliographicItem()
+								&& deduplicatedFilter.test(bibliographicItem)) {
+							writeRecord(deduplicatedOutput, bibliographicItem, realId, phantomId, inputChannel);
+						}
+						if (markedOutput != null) {
+							writeRecord(markedOutput, bibliographicItem, realId, phantomId, inputChannel);
+						}
+					}
+					for (RisOutput output : outputs) {
+						output.risRecord.clear();
+						output.span.reset();
+					}
+					realId = null;
+					break;
+				case "ID": // EndNote BibliographicItem number
+					realId = fieldContent;
+					bibliographicItem = recordIdMap.get(Integer.parseInt(realId));
+					for (RisOutput output : outputs) {
+						output.risRecord.put(RisRecord.ID, fieldContent);
+						output.risRecord.skipContinuationLines();
+					}
+					break;
+				case "LB":
+					for (RisOutput output : outputs) {
+						if (output.enhance) {
+							output.risRecord.addField(RisRecord.LB, fieldContent, line);
 						} else {
-							map.put(fieldName, fieldContent);
+							// Mark mode: to ensure that the present Label is not used.
+							output.risRecord.skipContinuationLines();
 						}
-						previousFieldName = fieldName;
-						break;
 					}
-				} else { // continuation line
-					map.put(previousFieldName, map.get(previousFieldName) + "\n" + line);
+					break;
+				default:
+					int ordinal = RisRecord.ordinal(fieldName);
+					for (RisOutput output : outputs) {
+						output.risRecord.addField(ordinal, fieldContent, line);
+					}
+					break;
 				}
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			String message = "IOException while writing bibliographic items from %s at line %d: %s".formatted(inputFileName, lineNumber, e.getMessage());
+			log.error(message, e);
+			throw new RuntimeException(message, e);
+		} finally {
+			for (RisOutput output : outputs) {
+				try {
+					output.close();
+				} catch (IOException e) {
+					log.error("IOException while closing output file: {}", e.getMessage());
+				}
+			}
+		}
+		for (RisOutput output : outputs) {
+			log.debug("Finished writing to file. # records: {}, of which copied unchanged: {}", output.numberWritten, output.numberCopied);
+		}
+		return new NumbersWritten(deduplicatedOutput == null ? 0 : deduplicatedOutput.numberWritten,
+				markedOutput == null ? 0 : markedOutput.numberWritten);
+	}
+
+	private void writeRecord(RisOutput output, BibliographicItem bibliographicItem, @Nullable String realId, int phantomId,
+			@Nullable FileChannel inputChannel) throws IOException {
+		if (inputChannel != null && realId != null && output.span.isVerbatim(bibliographicItem)) {
+			output.bw.flush();
+			transferFully(inputChannel, output.span.getStart(), output.span.getLength(), output.channel);
+			output.bw.write("\n");
+			output.numberCopied++;
+		} else {
+			if (realId == null) {
+				output.risRecord.put(RisRecord.ID, Integer.toString(phantomId));
+			}
+			if (!output.enhance && bibliographicItem.hasCluster()) {
+				output.risRecord.put(RisRecord.LB, Integer.toString(bibliographicItem.getClusterId()));
+			}
+			writeBibliographicItem(output.risRecord, bibliographicItem, output.bw, output.enhance);
+		}
+		output.numberWritten++;
+	}
+
+	private static void transferFully(FileChannel source, long position, long count, FileChannel target) throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			transferred += source.transferTo(position + transferred, count - transferred, target);
 		}
-		log.debug("Finished writing to file. # records: {}", numberWritten);
-		return numberWritten;
 	}
 
 	/*
-	 * Ordering of an EndNote export RIS file: the fields are ordered
-	 * alphabetically, except for TY (first), and ID and ER (last fields)
+	 * Does the replacements of writeDeduplicatedBibliographicItems (enhance = true) and writes the record in the order
+	 * of an EndNote export RIS file (see RisRecord::writeTo)
 	 */
-	private void writeBibliographicItem(Map<String, String> map, @Nullable BibliographicItem bibliographicItem, BufferedWriter bw, boolean enhance)
+	private void writeBibliographicItem(RisRecord risRecord, @Nullable BibliographicItem bibliographicItem, BufferedWriter bw, boolean enhance)
 			throws IOException {
 		if (enhance && bibliographicItem != null) {
 			if (!bibliographicItem.getDois().isEmpty()) {
-				map.put("DO", "https://doi.org/"
+				risRecord.put(RisRecord.DO, "https://doi.org/"
 						+ bibliographicItem.getDois().stream().collect(Collectors.joining("\nhttps://doi.org/")));
 			}
 			if (bibliographicItem.getPagesOutput() == null || bibliographicItem.getPagesOutput().isEmpty()) {
-				map.remove("SP");
+				risRecord.remove(RisRecord.SP);
 			} else {
-				map.put("SP", bibliographicItem.getPagesOutput());
+				risRecord.put(RisRecord.SP, bibliographicItem.getPagesOutput());
 			}
 			if (bibliographicItem.isReply() || bibliographicItem.getTitle() != null) {
-				map.put("TI", bibliographicItem.getTitle());
-				map.put("ST", bibliographicItem.getTitle());
+				risRecord.put(RisRecord.TI, bibliographicItem.getTitle());
+				risRecord.put(RisRecord.ST, bibliographicItem.getTitle());
 			}
 			if (bibliographicItem.isClinicalTrialGov()) {
-				map.put("TY", "JOUR");
-				map.put("T2", "https://clinicaltrials.gov");
+				risRecord.put(RisRecord.TY, "JOUR");
+				risRecord.put(RisRecord.T2, "https://clinicaltrials.gov");
 				String url = "https://clinicaltrials.gov/study/" + bibliographicItem.getPageStart();
-				List<String> urlList = new ArrayList<>();
-				if (map.containsKey("UR")) {
-					String urls = map.get("UR");
-					urlList.addAll(Arrays.asList(urls.split("\n")));
+				String urls = risRecord.get(RisRecord.UR);
+				if (urls != null) {
+					List<String> urlList = new ArrayList<>(Arrays.asList(urls.split("\n")));
 					urlList.removeIf(u -> u.startsWith("https://clinicaltrials.gov"));
 					if (urlList.isEmpty()) {
-						map.put("UR", url);
+						risRecord.put(RisRecord.UR, url);
 					} else {
-						map.put("UR", url + "\nUR  - " + 
+						risRecord.put(RisRecord.UR, url + "\nUR  - " + 
 							urlList.stream()
 								.map(u -> u.replace("UR  - ", ""))
 								.collect(Collectors.joining("\nUR  - ")));
 					}
 				} else {
-					map.put("UR", url);
+					risRecord.put(RisRecord.UR, url);
 				}
 			}
 
 			// Some unusual authors should be kept, e.g. Group authors 
-			if (bibliographicItem.getAuthors().isEmpty() && ("Anonymous".equals(map.get("AU")) || "Nct".equals(map.get("AU")))) {
-				map.remove("AU");
+			if (bibliographicItem.getAllAuthors().isEmpty()) {
+				String author = risRecord.get(RisRecord.AU);
+				if ("Anonymous".equals(author) || "Nct".equals(author)) {
+					risRecord.remove(RisRecord.AU);
+				}
 			}
-			if (!map.containsKey("PY") && bibliographicItem.getPublicationYear() != 0) {
-				map.put("PY", Integer.toString(bibliographicItem.getPublicationYear()));
+			if (!risRecord.contains(RisRecord.PY) && bibliographicItem.getPublicationYear() != 0) {
+				risRecord.put(RisRecord.PY, Integer.toString(bibliographicItem.getPublicationYear()));
 			}
-			if (!map.containsKey("T2")) {
-				if (map.containsKey("J2")) {
-					map.put("T2", map.get("J2"));
-				} else if (map.containsKey("DO") && map.get("DO").contains("https://doi.org/10.2139/ssrn")) {
+			if (!risRecord.contains(RisRecord.T2)) {
+				String doi = risRecord.get(RisRecord.DO);
+				if (risRecord.contains(RisRecord.J2)) {
+					risRecord.put(RisRecord.T2, risRecord.get(RisRecord.J2));
+				} else if (doi != null && doi.contains("https://doi.org/10.2139/ssrn")) {
 					// alternative test could be ISSN 1556-5068
-					map.put("T2", "Social Science Research Network");
+					risRecord.put(RisRecord.T2, "Social Science Research Network");
 				}
 			}
 		}
 		// in enhanced mode C7 (Article number) is skipped, in Mark mode C7 is NOT skipped
-		String skipFields = enhance ? "(C7|ER|ID|TY|XYZ)" : "(ER|ID|TY|XYZ)";
-		StringBuilder sb = new StringBuilder();
-		sb.append("TY  - ").append(map.get("TY")).append("\n");
-		map.forEach((k, v) -> {
-			if (!k.matches(skipFields)) {
-				sb.append(k).append("  - ").append(v).append("\n");
-			}
-		});
-		sb.append("ID  - ").append(map.get("ID")).append("\n");
-		sb.append("ER  - ").append("\n\n");
-		bw.write(sb.toString());
+		risRecord.writeTo(bw, enhance);
 	}
 
 	/**
@@ -871,8 +1246,7 @@ public class IOService {
 		int numberWritten = 0;
 		String fieldContent = null;
 		String fieldName = null;
-		String previousFieldName = "XYZ";
-		Map<String, String> map = new TreeMap<>();
+		RisRecord risRecord = new RisRecord();
 
 		Map<Integer, BibliographicItemDB> truthMap = truthRecords.stream()
 				.collect(Collectors.toMap(BibliographicItemDB::getId, Function.identity()));
@@ -892,48 +1266,42 @@ public class IOService {
 				if (matcher.matches()) {
 					fieldName = matcher.group(1);
 					fieldContent = matcher.group(3);
-					previousFieldName = "XYZ";
 					switch (fieldName) {
 					case "ER":
 						if (id != null) {
 							log.error("Writing {}", id);
-							map.put(fieldName, fieldContent);
 							if (truthMap.containsKey(id)) {
 								if (truthMap.get(id).isTruePositive()) {
 									BibliographicItemDB bibliographicItemDB = truthMap.get(id);
 									if (bibliographicItemDB.getDedupid() != null) {
-										map.put("LB", bibliographicItemDB.getDedupid().toString());
+										risRecord.put(RisRecord.LB, bibliographicItemDB.getDedupid().toString());
 									} else {
-										map.put("LB", "");
+										risRecord.put(RisRecord.LB, "");
 									}
-									map.put("CA", "Duplicate");
+									risRecord.put(RisRecord.CA, "Duplicate");
 								} else {
-									map.remove("CA");
-									map.remove("LB");
+									risRecord.remove(RisRecord.CA);
+									risRecord.remove(RisRecord.LB);
 								}
 							} else {
-								map.put("CA", "Unknown");
+								risRecord.put(RisRecord.CA, "Unknown");
 							}
-							writeBibliographicItem(map, null, bw, false);
+							writeBibliographicItem(risRecord, null, bw, false);
 							numberWritten++;
 						}
-						map.clear();
+						risRecord.clear();
 						break;
 					case "ID": // EndNote BibliographicItem number
-						map.put(fieldName, fieldContent);
+						risRecord.put(RisRecord.ID, fieldContent);
+						risRecord.skipContinuationLines();
 						id = Integer.valueOf(fieldContent);
 						break;
 					default:
-						if (map.containsKey(fieldName)) {
-							map.put(fieldName, map.get(fieldName) + "\n" + line);
-						} else {
-							map.put(fieldName, fieldContent);
-						}
-						previousFieldName = fieldName;
+						risRecord.addField(RisRecord.ordinal(fieldName), fieldContent, line);
 						break;
 					}
 				} else { // continuation line
-					map.put(previousFieldName, map.get(previousFieldName) + "\n" + line);
+					risRecord.addContinuationLine(line);
 				}
 			}
 		} catch (IOException e) {
@@ -946,8 +1314,7 @@ public class IOService {
 		int numberWritten = 0;
 		String fieldContent = null;
 		String fieldName = null;
-		String previousFieldName = "XYZ";
-		Map<String, String> map = new TreeMap<>();
+		RisRecord risRecord = new RisRecord();
 
 		Map<Integer, BibliographicItemDB> truthMap = truthRecords.stream()
 				.collect(Collectors.toMap(BibliographicItemDB::getId, Function.identity()));
@@ -967,47 +1334,41 @@ public class IOService {
 				if (matcher.matches()) {
 					fieldName = matcher.group(1);
 					fieldContent = matcher.group(3);
-					previousFieldName = "XYZ";
 					switch (fieldName) {
 					case "ER":
 						if (id != null) {
 							log.error("Writing {}", id);
-							map.put(fieldName, fieldContent);
 							if (truthMap.containsKey(id)) {
-								map.put("CA", map.getOrDefault("CA", "").toUpperCase());
+								risRecord.put(RisRecord.CA, Objects.requireNonNullElse(risRecord.get(RisRecord.CA), "").toUpperCase());
 								if (truthMap.get(id).isTruePositive()) {
 									BibliographicItemDB bibliographicItemDB = truthMap.get(id);
 									if (bibliographicItemDB.getDedupid() != null) {
-										map.put("LB", bibliographicItemDB.getDedupid().toString());
+										risRecord.put(RisRecord.LB, bibliographicItemDB.getDedupid().toString());
 									} else {
-										map.put("LB", "");
+										risRecord.put(RisRecord.LB, "");
 									}
 								} else {
-									map.remove("LB");
+									risRecord.remove(RisRecord.LB);
 								}
 							} else {
-								map.put("CA", map.getOrDefault("CA", "").toLowerCase());
+								risRecord.put(RisRecord.CA, Objects.requireNonNullElse(risRecord.get(RisRecord.CA), "").toLowerCase());
 							}
-							writeBibliographicItem(map, null, bw, false);
+							writeBibliographicItem(risRecord, null, bw, false);
 							numberWritten++;
 						}
-						map.clear();
+						risRecord.clear();
 						break;
 					case "ID": // EndNote BibliographicItem number
-						map.put(fieldName, fieldContent);
+						risRecord.put(RisRecord.ID, fieldContent);
+						risRecord.skipContinuationLines();
 						id = Integer.valueOf(fieldContent);
 						break;
 					default:
-						if (map.containsKey(fieldName)) {
-							map.put(fieldName, map.get(fieldName) + "\n" + line);
-						} else {
-							map.put(fieldName, fieldContent);
-						}
-						previousFieldName = fieldName;
+						risRecord.addField(RisRecord.ordinal(fieldName), fieldContent, line);
 						break;
 					}
 				} else { // continuation line
-					map.put(previousFieldName, map.get(previousFieldName) + "\n" + line);
+					risRecord.addContinuationLine(line);
 				}
 			}
 		} catch (IOException e) {
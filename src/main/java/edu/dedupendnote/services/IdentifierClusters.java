@@ -0,0 +1,215 @@
+package edu.dedupendnote.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.stream.IntStream;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import lombok.extern.slf4j.Slf4j;
+
+// @formatter:off
+/*
+ * Clusters of bibliographicItems with the same identifier, made in 1 pass over the bibliographicItems before the
+ * comparisons of the year sets. Only the first bibliographicItem of a cluster (the root) takes part in these
+ * comparisons. Afterwards label() gives the other members the clusterId of their root (or the ID of the root if it has
+ * no other duplicates). The identifiers (keys(...)):
+ * - only if trialsAndReviews is set (property nct-cochrane-clusters): the NCT ID of the bibliographicItems from
+ *   ClinicalTrials.gov (pageStart, see IOService::readBibliographicItems) and the DOI of Cochrane reviews
+ *   (COCHRANE_DOI_PATTERN: the review number and the version), both within 1 publication year. compareSet decides
+ *   on these identifiers (the titles of trials are not compared and their authors are removed, Cochrane reviews of
+ *   1 year are compared by their DOIs), but compares all pairs: the many records of 1 trial from registries and
+ *   databases are then compared once per trial. A trial without NCT ID or a Cochrane review without DOI is not
+ *   clustered, nor are the identifiers it bridges (findBridges).
+ * - only if dois is set (property doi-clusters): the other DOIs (e.g. the versions of 1 article in PubMed, Embase, Web
+ *   of Science and Scopus exports). A DOI cluster is also found if the publication years of its members are more than
+ *   1 year apart (e.g. an "ahead of print" version), which compareSet never compares.
+ *
+ * A union-find over the positions in the list (parent), but a bibliographicItem is added to the cluster of an earlier
+ * bibliographicItem with the same identifier only if it is a duplicate of the root of that cluster for compareSet
+ * (isDuplicate, the same comparison for 1 pair): a shared identifier alone is not enough (e.g. a reply or an erratum
+ * with the DOI of the article). So every root is its own parent and the parent of its members.
+ *
+ * The results can differ from the ones without IdentifierClusters: compareSet chains the labels through the duplicates
+ * (a labeled pivot gives its clusterId to the later duplicates), but a member is no pivot. A bibliographicItem which is
+ * a duplicate of a member but not of its root stays unlabeled (e.g. a record of the trial in the next year with the
+ * journal of the member but not of the root). Therefore both kinds of identifiers have to be switched on.
+ *
+ * - bibliographicItems without a publication year are left out (as in ExactDuplicates)
+ * - the reply flag and the title of a member are passed to its root at once, as compareSet does for a pivot and a
+ *   duplicate: the comparisons of the root afterwards use them. label() passes them to the members too: compareSet
+ *   passes them to every pivot of the cluster, and the kept bibliographicItem (the first one in the list) can be a
+ *   member
+ * - the roots are chosen in the order of the pivots of compareSet (yearSetOrder)
+ */
+// @formatter:on
+@Slf4j
+final class IdentifierClusters {
+
+	private final boolean trialsAndReviews;
+	private final boolean dois;
+	private final List<BibliographicItem> members = new ArrayList<>();
+	private final List<BibliographicItem> rootsOfMembers = new ArrayList<>();
+	private final Set<String> bridges = new HashSet<>();
+
+	IdentifierClusters(boolean trialsAndReviews, boolean dois) {
+		this.trialsAndReviews = trialsAndReviews;
+		this.dois = dois;
+	}
+
+	/*
+	 * The roots and the bibliographicItems which are not in a cluster
+	 */
+	List<BibliographicItem> collapse(List<BibliographicItem> bibliographicItems, boolean descending,
+			BiPredicate<BibliographicItem, BibliographicItem> isDuplicate) {
+		findBridges(bibliographicItems);
+		int[] parent = new int[bibliographicItems.size()];
+		Map<String, Integer> firstWithKey = new HashMap<>();
+		for (int i : yearSetOrder(bibliographicItems, descending)) {
+			parent[i] = i;
+			BibliographicItem bibliographicItem = bibliographicItems.get(i);
+			List<String> keys = keys(bibliographicItem);
+			for (String key : keys) {
+				Integer j = firstWithKey.get(key);
+				if (j != null) {
+					BibliographicItem root = bibliographicItems.get(parent[j]);
+					if (isDuplicate.test(bibliographicItem, root)) {
+						parent[i] = parent[j];
+						join(bibliographicItem, root);
+						break;
+					}
+				}
+			}
+			for (String key : keys) {
+				firstWithKey.putIfAbsent(key, i);
+			}
+		}
+		List<BibliographicItem> compared = new ArrayList<>(bibliographicItems.size() - members.size());
+		for (int i = 0; i < bibliographicItems.size(); i++) {
+			if (parent[i] == i) {
+				compared.add(bibliographicItems.get(i));
+			}
+		}
+		log.debug("Identifier clusters: {} of {} bibliographic items are not compared", members.size(),
+				bibliographicItems.size());
+		return compared;
+	}
+
+	/*
+	 * The positions in the order of the pivots of compareSet: the year sets from the most recent year (one file) or from
+	 * the oldest year (two files), and within a year in the order of the list. The root of a cluster is the
+	 * bibliographicItem which compareSet would first use as pivot for the cluster, so the members get the same clusterId
+	 * as without IdentifierClusters (and a bibliographicItem of the old file is the root if there is one in its year).
+	 */
+	private static int[] yearSetOrder(List<BibliographicItem> bibliographicItems, boolean descending) {
+		Comparator<Integer> byYear = Comparator.comparingInt(i -> bibliographicItems.get(i).getPublicationYear());
+		return IntStream.range(0, bibliographicItems.size())
+				.boxed()
+				.sorted(descending ? byYear.reversed() : byYear)
+				.mapToInt(Integer::intValue)
+				.toArray();
+	}
+
+	int size() {
+		return members.size();
+	}
+
+	/*
+	 * After the comparisons of the year sets. The members are labeled from the last one: a member gets the reply flag
+	 * and the title of the members after it, as a pivot of compareSet gets them from the duplicates after it.
+	 */
+	void label() {
+		Set<BibliographicItem> replyAfter = Collections.newSetFromMap(new IdentityHashMap<>());
+		Map<BibliographicItem, String> titleAfter = new IdentityHashMap<>();
+		for (int i = members.size() - 1; i >= 0; i--) {
+			BibliographicItem root = rootsOfMembers.get(i);
+			if (!root.hasCluster()) {
+				root.setClusterId(root.getId());
+			}
+			BibliographicItem member = members.get(i);
+			member.setClusterId(root.getClusterId());
+			boolean reply = member.isReply();
+			String title = member.getTitle();
+			if (replyAfter.contains(root)) {
+				member.setReply(true);
+			}
+			if (title == null && titleAfter.containsKey(root)) {
+				member.setTitle(titleAfter.get(root));
+			}
+			if (reply) {
+				replyAfter.add(root);
+			} else if (title != null) {
+				titleAfter.put(root, title);
+			}
+		}
+	}
+
+	private void join(BibliographicItem member, BibliographicItem root) {
+		members.add(member);
+		rootsOfMembers.add(root);
+		if (member.isReply()) {
+			root.setReply(true);
+		} else if (member.getTitle() != null && root.getTitle() == null) {
+			root.setTitle(member.getTitle());
+		}
+	}
+
+	/*
+	 * A trial without NCT ID is a duplicate of all trials of its year set (of all year sets without publication year),
+	 * a Cochrane review without DOI of all versions of the review of its publication year. compareSet decides in which
+	 * duplicate list it ends by the order of the pivots, also of the members: the identifiers which it bridges are not
+	 * clustered.
+	 */
+	private void findBridges(List<BibliographicItem> bibliographicItems) {
+		for (BibliographicItem bibliographicItem : bibliographicItems) {
+			int year = bibliographicItem.getPublicationYear();
+			String pageStart = bibliographicItem.getPageStart();
+			if (bibliographicItem.isClinicalTrialGov() && pageStart == null) {
+				if (year == 0) {
+					bridges.add("trial *");
+				} else {
+					for (int y = year - 1; y <= year + 1; y++) {
+						bridges.add("trial " + y);
+					}
+				}
+			} else if (bibliographicItem.isCochrane() && pageStart != null && bibliographicItem.getDois().isEmpty()) {
+				bridges.add("cochrane " + pageStart + " " + (year == 0 ? "*" : year));
+			}
+		}
+	}
+
+	/*
+	 * The keys of the kinds of identifiers are different: a DOI starts with "10.", an NCT ID has only digits
+	 */
+	private List<String> keys(BibliographicItem bibliographicItem) {
+		int year = bibliographicItem.getPublicationYear();
+		if (year == 0) {
+			return List.of();
+		}
+		List<String> keys = new ArrayList<>();
+		String pageStart = bibliographicItem.getPageStart();
+		if (trialsAndReviews && bibliographicItem.isClinicalTrialGov() && pageStart != null
+				&& !bridges.contains("trial " + year) && !bridges.contains("trial *")) {
+			keys.add(pageStart + " " + year);
+		}
+		boolean bridgedReview = bridges.contains("cochrane " + pageStart + " " + year)
+				|| bridges.contains("cochrane " + pageStart + " *");
+		for (String doi : bibliographicItem.getDois()) {
+			if (DeduplicationService.COCHRANE_DOI_PATTERN.matcher(doi).matches()) {
+				if (trialsAndReviews && !bridgedReview) {
+					keys.add(doi + " " + year);
+				}
+			} else if (dois) {
+				keys.add(doi);
+			}
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,132 @@
+package edu.dedupendnote.services;
+
+import java.util.Arrays;
+
+// @formatter:off
+/*
+ * Jaro-Winkler similarity of 2 Strings, with the same results as Apache Commons Text JaroWinklerSimilarity::apply
+ * (version 1.14). Used in the O(n^2) comparison loops of the authors, titles and journals.
+ *
+ * JaroWinklerSimilarity wraps both Strings in a SimilarityInput, reads every character as a (boxed) Character and
+ * allocates 4 arrays per call. This version copies the characters of both Strings once (String::getChars) into
+ * char arrays of the thread which are reused, as are the match flags. The transpositions are counted without copying
+ * the matched characters. The title comparison compares prefixes of the titles without substring(...).
+ *
+ * The normalized authors, titles and journals are ASCII, and Java already stores them as Latin-1 byte[] with a cached
+ * hash (compact Strings): a separate byte[] key type would only add an object per String.
+ */
+// @formatter:on
+public final class JaroWinkler {
+
+	private static final double DEFAULT_SCALING_FACTOR = 0.1;
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	private JaroWinkler() {
+	}
+
+	public static double similarity(String first, String second) {
+		return similarity(first, first.length(), second, second.length());
+	}
+
+	/*
+	 * The similarity of the first length characters of both Strings (as similarity(first.substring(0, length),
+	 * second.substring(0, length)))
+	 */
+	public static double similarity(String first, String second, int length) {
+		return similarity(first, length, second, length);
+	}
+
+	private static double similarity(String first, int firstLength, String second, int secondLength) {
+		if (firstLength == secondLength && first.regionMatches(0, second, 0, firstLength)) {
+			return 1.0;
+		}
+		String max;
+		String min;
+		int maxLength;
+		int minLength;
+		if (firstLength > secondLength) {
+			max = first;
+			maxLength = firstLength;
+			min = second;
+			minLength = secondLength;
+		} else {
+			max = second;
+			maxLength = secondLength;
+			min = first;
+			minLength = firstLength;
+		}
+		int range = Math.max(maxLength / 2 - 1, 0);
+		Buffers buffers = BUFFERS.get();
+		buffers.prepare(minLength, maxLength);
+		char[] minChars = buffers.minChars;
+		char[] maxChars = buffers.maxChars;
+		boolean[] minMatched = buffers.minMatched;
+		boolean[] maxMatched = buffers.maxMatched;
+		min.getChars(0, minLength, minChars, 0);
+		max.getChars(0, maxLength, maxChars, 0);
+
+		int matches = 0;
+		for (int mi = 0; mi < minLength; mi++) {
+			char c1 = minChars[mi];
+			for (int xi = Math.max(mi - range, 0), xn = Math.min(mi + range + 1, maxLength); xi < xn; xi++) {
+				if (!maxMatched[xi] && c1 == maxChars[xi]) {
+					minMatched[mi] = true;
+					maxMatched[xi] = true;
+					matches++;
+					break;
+				}
+			}
+		}
+		if (matches == 0) {
+			return 0.0;
+		}
+
+		// the k-th matched character of min against the k-th matched character of max
+		int halfTranspositions = 0;
+		int xi = 0;
+		for (int mi = 0; mi < minLength; mi++) {
+			if (minMatched[mi]) {
+				while (!maxMatched[xi]) {
+					xi++;
+				}
+				if (minChars[mi] != maxChars[xi]) {
+					halfTranspositions++;
+				}
+				xi++;
+			}
+		}
+
+		int prefix = 0;
+		for (int i = 0, n = Math.min(4, minLength); i < n && first.charAt(i) == second.charAt(i); i++) {
+			prefix++;
+		}
+
+		double m = matches;
+		double jaro = (m / firstLength + m / secondLength + (m - (double) halfTranspositions / 2) / m) / 3;
+		return jaro < 0.7d ? jaro : jaro + DEFAULT_SCALING_FACTOR * prefix * (1d - jaro);
+	}
+
+	/*
+	 * The characters and match flags of the 2 Strings. The match flags are cleared for the requested lengths.
+	 */
+	private static final class Buffers {
+		private char[] minChars = new char[256];
+		private char[] maxChars = new char[256];
+		private boolean[] minMatched = new boolean[256];
+		private boolean[] maxMatched = new boolean[256];
+
+		void prepare(int minLength, int maxLength) {
+			if (maxChars.length < maxLength) {
+				int capacity = Math.max(maxLength, 2 * maxChars.length);
+				minChars = new char[capacity];
+				maxChars = new char[capacity];
+				minMatched = new boolean[capacity];
+				maxMatched = new boolean[capacity];
+			} else {
+				Arrays.fill(minMatched, 0, minLength, false);
+				Arrays.fill(maxMatched, 0, maxLength, false);
+			}
+		}
+	}
+}
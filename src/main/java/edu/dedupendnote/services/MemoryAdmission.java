@@ -0,0 +1,187 @@
+package edu.dedupendnote.services;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import org.jspecify.annotations.Nullable;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import lombok.extern.slf4j.Slf4j;
+
+// @formatter:off
+/*
+ * Admission of an input file by the estimated memory footprint of its bibliographicItems, so that a file which is too
+ * large for the heap is refused while it is read (with a clear message), instead of failing with an OutOfMemoryError
+ * in the comparisons (and taking the other running deduplications with it).
+ *
+ * - a deduplication reserves the memory for its input files (Reservation) and releases it at the end. IOService calls
+ *   Reservation::admit every SAMPLE_SIZE bibliographicItems with the (estimated) number of bibliographicItems of the
+ *   file: known (input file), estimated from the content length (upload), or unknown (chunked upload: then the
+ *   bibliographicItems which have been read + SAMPLE_SIZE). Only the increase of the reservation is checked.
+ * - the footprint of a bibliographicItem is estimated from the average size of the fields of the first SAMPLE_SIZE:
+ *   BYTES_PER_ITEM for the object and its collections (after BibliographicItem::freeze) + the Strings.
+ *   HEADROOM is for the reading (NormalizationCache) and the comparisons.
+ * - the available memory is maxBytes - the larger of the heap in use and the reservations. The heap in use is
+ *   measured after the last garbage collection (usedAfterLastCollection()), not with Runtime::freeMemory which also
+ *   counts the garbage. The reservations include the bibliographicItems which the deduplications have already read,
+ *   so they are not added to the heap in use.
+ */
+// @formatter:on
+@Slf4j
+public final class MemoryAdmission {
+
+	public static final int SAMPLE_SIZE = 2_000;
+
+	private static final long BYTES_PER_ITEM = 500;
+	private static final long BYTES_PER_STRING = 40;
+	private static final double HEADROOM = 1.5;
+
+	private static final MemoryAdmission HEAP = new MemoryAdmission(Runtime.getRuntime().maxMemory(),
+			MemoryAdmission::usedAfterLastCollection);
+
+	private final long maxBytes;
+	private final LongSupplier usedBytes;
+	private long reservedBytes = 0;
+
+	/*
+	 * usedBytes: the bytes of the heap in use (for the heap: after the last garbage collection)
+	 */
+	public MemoryAdmission(long maxBytes, LongSupplier usedBytes) {
+		this.maxBytes = maxBytes;
+		this.usedBytes = usedBytes;
+	}
+
+	/*
+	 * The heap of this JVM, shared by all deduplications
+	 */
+	public static MemoryAdmission heap() {
+		return HEAP;
+	}
+
+	/*
+	 * The estimated number of bytes for numberOfItems bibliographicItems like the ones in sample
+	 */
+	public static long estimateBytes(List<BibliographicItem> sample, long numberOfItems) {
+		return (long) (bytesPerItem(sample) * numberOfItems);
+	}
+
+	private static double bytesPerItem(List<BibliographicItem> sample) {
+		if (sample.isEmpty()) {
+			return 0;
+		}
+		long bytes = 0;
+		for (BibliographicItem bibliographicItem : sample) {
+			bytes += BYTES_PER_ITEM + stringBytes(bibliographicItem.getAllAuthors())
+					+ stringBytes(bibliographicItem.getDois()) + stringBytes(bibliographicItem.getTitles())
+					+ stringBytes(bibliographicItem.getJournals()) + stringBytes(bibliographicItem.getIssns())
+					+ stringBytes(bibliographicItem.getIsbns()) + stringBytes(bibliographicItem.getTitle())
+					+ stringBytes(bibliographicItem.getPageStart()) + stringBytes(bibliographicItem.getPagesOutput());
+		}
+		return HEADROOM * bytes / sample.size();
+	}
+
+	public Reservation reserve() {
+		return new Reservation();
+	}
+
+	public synchronized long availableBytes() {
+		return maxBytes - Math.max(usedBytes.getAsLong(), reservedBytes);
+	}
+
+	/*
+	 * Throws an InvalidRisFileException if the increase does not fit in the available bytes
+	 */
+	private synchronized void reserve(long increase, String inputFileName, long numberOfItems, long neededBytes) {
+		long availableBytes = availableBytes();
+		log.debug("Memory for {} bibliographic items of {}: about {} MB needed ({} MB more), {} MB available",
+				numberOfItems, inputFileName, neededBytes >> 20, increase >> 20, availableBytes >> 20);
+		if (increase > availableBytes) {
+			throw new InvalidRisFileException("ERROR: The input file " + inputFileName + " has about " + numberOfItems
+					+ " bibliographic items, which need about " + (neededBytes >> 20) + " MB of memory, but only "
+					+ (availableBytes >> 20)
+					+ " MB is available now. Please try again later, or split the input file into smaller files.");
+		}
+		reservedBytes += increase;
+	}
+
+	private synchronized void release(long bytes) {
+		reservedBytes -= bytes;
+	}
+
+	/*
+	 * The memory of 1 deduplication (1 or 2 input files), released by close()
+	 */
+	public final class Reservation implements AutoCloseable {
+
+		private long bytes = 0;
+		private @Nullable String inputFileName;
+		private double bytesPerItem = 0;
+		private long fileBytes = 0;
+
+		private Reservation() {
+		}
+
+		/*
+		 * Reserves the memory for numberOfItems bibliographicItems of inputFileName like the ones in sample (only used
+		 * in the first call for inputFileName). Throws an InvalidRisFileException if the increase of the reservation
+		 * for the file does not fit.
+		 */
+		public void admit(String inputFileName, List<BibliographicItem> sample, long numberOfItems) {
+			if (!inputFileName.equals(this.inputFileName)) {
+				this.inputFileName = inputFileName;
+				bytesPerItem = bytesPerItem(sample);
+				fileBytes = 0;
+			}
+			long neededBytes = (long) (bytesPerItem * numberOfItems);
+			if (neededBytes > fileBytes) {
+				reserve(neededBytes - fileBytes, inputFileName, numberOfItems, neededBytes);
+				bytes += neededBytes - fileBytes;
+				fileBytes = neededBytes;
+			}
+		}
+
+		@Override
+		public void close() {
+			release(bytes);
+			bytes = 0;
+		}
+	}
+
+	/*
+	 * The old generation after the last garbage collection (before the first one: now). Without an old generation
+	 * (pool with a usage threshold) the heap in use now, including the garbage.
+	 */
+	private static long usedAfterLastCollection() {
+		long used = 0;
+		boolean found = false;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage collectionUsage = pool.getCollectionUsage();
+			if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && collectionUsage != null) {
+				used += collectionUsage.getUsed() > 0 ? collectionUsage.getUsed() : pool.getUsage().getUsed();
+				found = true;
+			}
+		}
+		if (!found) {
+			Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+		return used;
+	}
+
+	private static long stringBytes(Collection<String> strings) {
+		long bytes = 0;
+		for (String s : strings) {
+			bytes += stringBytes(s);
+		}
+		return bytes;
+	}
+
+	private static long stringBytes(@Nullable String s) {
+		return s == null ? 0 : BYTES_PER_STRING + s.length();
+	}
+}
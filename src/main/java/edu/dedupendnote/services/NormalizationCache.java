@@ -0,0 +1,143 @@
+package edu.dedupendnote.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import edu.dedupendnote.domain.AuthorRecord;
+import edu.dedupendnote.domain.TitleRecord;
+
+// @formatter:off
+/*
+ * Memo caches in front of the normalization of the authors, titles and journals, used by
+ * IOService::readBibliographicItems for 1 input file.
+ *
+ * Records from different databases often have the same field content: the same journal name in thousands of records,
+ * the same author names and titles. AuthorsNormalizationService::normalizeInputAuthors,
+ * TitlesNormalizationService::normalizeInputTitles and JournalsNormalizationService::normalizeInputJournals are pure
+ * functions of their input, so the result for a field content which has already been seen can be reused.
+ *
+ * - 1 cache per field type, each bounded to the capacity (least recently used entries are removed)
+ * - the J2 field is normalized differently from the other journal fields (no split on ". "): separate cache
+ * - the results are unmodifiable and shared between the BibliographicItems with the same field content, so
+ *   repeated field content doesn't create new Strings. The caller copies the Strings into the sets / lists of the
+ *   BibliographicItem (addAll), or keeps the shared journal Set until it is needed (BibliographicItem::addJournals).
+ *   A result is never changed.
+ * - the Strings of a new result are replaced by the Strings of the StringPool of the input file: equal results for
+ *   different field content (e.g. the journal names of T2 "Journal of Hepatology" and J2 "J Hepatol") also share
+ *   their Strings
+ * - the hits and misses are counted per cache, and are logged at the end of readBibliographicItems
+ * - a NormalizationCache is not thread safe: use 1 instance per read
+ */
+// @formatter:on
+public final class NormalizationCache {
+
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+
+	private final Memo<AuthorRecord> authors;
+	private final Memo<TitleRecord> titles;
+	private final Memo<Set<String>> journals;
+	private final Memo<Set<String>> abbreviatedJournals;
+	private final StringPool stringPool;
+
+	public NormalizationCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public NormalizationCache(int capacity) {
+		this(capacity, new StringPool());
+	}
+
+	NormalizationCache(int capacity, StringPool stringPool) {
+		this.stringPool = stringPool;
+		authors = new Memo<>("authors", capacity);
+		titles = new Memo<>("titles", capacity);
+		journals = new Memo<>("journals", capacity);
+		abbreviatedJournals = new Memo<>("J2 journals", capacity);
+	}
+
+	public AuthorRecord normalizeInputAuthors(String authorInput) {
+		return authors.get(authorInput, a -> {
+			AuthorRecord authorRecord = AuthorsNormalizationService.normalizeInputAuthors(a);
+			return new AuthorRecord(stringPool.internNullable(authorRecord.author()),
+					stringPool.internNullable(authorRecord.authorTransposed()), authorRecord.isAuthorTransposed());
+		});
+	}
+
+	public TitleRecord normalizeInputTitles(String title) {
+		return titles.get(title, t -> {
+			TitleRecord titleRecord = TitlesNormalizationService.normalizeInputTitles(t);
+			List<String> titles = titleRecord.titles();
+			stringPool.internAll(titles);
+			return new TitleRecord(titleRecord.originalTitle(), List.copyOf(titles));
+		});
+	}
+
+	public Set<String> normalizeInputJournals(String journal, String fieldName) {
+		Memo<Set<String>> memo = "J2".equals(fieldName) ? abbreviatedJournals : journals;
+		/*
+		 * unmodifiableSet instead of Set.copyOf: keeps the iteration order of the HashSet of
+		 * normalizeInputJournals, which is also the order in which they are added to the BibliographicItem
+		 */
+		return memo.get(journal, j -> {
+			Set<String> journals = JournalsNormalizationService.normalizeInputJournals(j, fieldName);
+			stringPool.internAll(journals);
+			return Collections.unmodifiableSet(journals);
+		});
+	}
+
+	public String hitRates() {
+		return String.join(", ", authors.hitRate(), titles.hitRate(), journals.hitRate(),
+				abbreviatedJournals.hitRate());
+	}
+
+	public long hits() {
+		return authors.hits + titles.hits + journals.hits + abbreviatedJournals.hits;
+	}
+
+	public long misses() {
+		return authors.misses + titles.misses + journals.misses + abbreviatedJournals.misses;
+	}
+
+	/*
+	 * LinkedHashMap in access order: removeEldestEntry removes the least recently used entry
+	 */
+	private static final class Memo<V> extends LinkedHashMap<String, V> {
+
+		private final String name;
+		private final int capacity;
+		private long hits = 0;
+		private long misses = 0;
+
+		Memo(String name, int capacity) {
+			super(16, 0.75f, true);
+			this.name = name;
+			this.capacity = capacity;
+		}
+
+		V get(String key, Function<String, V> normalizer) {
+			V value = super.get(key);
+			if (value != null) {
+				hits++;
+				return value;
+			}
+			misses++;
+			value = normalizer.apply(key);
+			put(key, value);
+			return value;
+		}
+
+		String hitRate() {
+			long lookups = hits + misses;
+			return String.format("%s %d/%d (%.1f%%)", name, hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -23,12 +23,29 @@ public class NormalizationService {
 
 	public static final int EARLIEST_PUBLICATION_YEAR = 1850;
 
+	// @formatter:off
+	/*
+	 * Most DO fields are ASCII without "%", "+" (URLDecoder) and "&" (HTML entities): the DOIs are then found by
+	 * scanDois without decoding, lowercasing and regex. Other DO fields use the URLDecoder / unescapeHtml4 / DOI_PATTERN
+	 * version (normalizeInputDoisWithPattern).
+	 */
+	// @formatter:on
 	public static Set<String> normalizeInputDois(String doi) {
-		Set<String> dois = new HashSet<>();
 		// Scopus bibliographicItems sometimes add Cited references in this field
 		if (doi.length() > 200) {
-			return dois;
+			return new HashSet<>();
+		}
+		for (int i = 0; i < doi.length(); i++) {
+			char c = doi.charAt(i);
+			if (c >= 0x80 || c == '%' || c == '+' || c == '&') {
+				return normalizeInputDoisWithPattern(doi);
+			}
 		}
+		return scanDois(doi);
+	}
+
+	private static Set<String> normalizeInputDoisWithPattern(String doi) {
+		Set<String> dois = new HashSet<>();
 		try {
 			doi = URLDecoder.decode(doi, "UTF8");
 			doi = StringEscapeUtils.unescapeHtml4(doi);
@@ -44,6 +61,73 @@ public class NormalizationService {
 		return dois;
 	}
 
+	// @formatter:off
+	/*
+	 * DOI_PATTERN ("\\b(10.\\d{4,9}/[-._;()<>/:a-z0-9]+)\\b") on the lowercased ASCII string, with the backtracking
+	 * of the regex:
+	 * - the 4 to 9 digits must be followed by "/", so all digits of the run are taken
+	 * - the suffix characters are taken greedily, and given back until the end is a word boundary
+	 * The trailing "." of a DOI is removed.
+	 */
+	// @formatter:on
+	private static Set<String> scanDois(String s) {
+		Set<String> dois = new HashSet<>();
+		int n = s.length();
+		int p = 0;
+		while (p + 9 <= n) {
+			int end = matchDoi(s, p);
+			if (end < 0) {
+				p++;
+				continue;
+			}
+			int doiEnd = s.charAt(end - 1) == '.' ? end - 1 : end;
+			char[] chars = new char[doiEnd - p];
+			for (int i = p; i < doiEnd; i++) {
+				chars[i - p] = toLowerAscii(s.charAt(i));
+			}
+			dois.add(new String(chars));
+			p = end;
+		}
+		return dois;
+	}
+
+	/*
+	 * Returns the end of the DOI which starts at p, or -1
+	 */
+	private static int matchDoi(String s, int p) {
+		int n = s.length();
+		if (s.charAt(p) != '1' || s.charAt(p + 1) != '0' || !isBoundary(s, p)) {
+			return -1;
+		}
+		char any = s.charAt(p + 2);
+		if (any == '\n' || any == '\r') {
+			return -1;
+		}
+		int q = p + 3;
+		while (q < n && isDigit(s.charAt(q))) {
+			q++;
+		}
+		int digits = q - (p + 3);
+		if (digits < 4 || digits > 9 || q >= n || s.charAt(q) != '/') {
+			return -1;
+		}
+		int suffixStart = q + 1;
+		int end = suffixStart;
+		while (end < n && isDoiSuffixChar(toLowerAscii(s.charAt(end)))) {
+			end++;
+		}
+		for (; end > suffixStart; end--) {
+			if (isBoundary(s, end)) {
+				return end;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isDoiSuffixChar(char c) {
+		return (c >= 'a' && c <= 'z') || isDigit(c) || "-._;()<>/:".indexOf(c) >= 0;
+	}
+
 	// @formatter:off
 	/*
 	 * ISSNs and ISBNs are treated in the same way: uppercased and hyphens removed
@@ -73,6 +157,40 @@ public class NormalizationService {
 	 */
 	// @formatter:on
 	public static IsbnIssnRecord normalizeInputIssns(String issn) {
+		if (!isAscii(issn)) {
+			return normalizeInputIssnsWithPattern(issn);
+		}
+		Set<String> normalizedIsbns = new HashSet<>();
+		Set<String> normalizedIssns = new HashSet<>();
+		char[] group = new char[17];
+		int n = issn.length();
+		int p = 0;
+		while (p + 8 <= n) {
+			int end = matchIssnIsbn(issn, p);
+			if (end < 0) {
+				p++;
+				continue;
+			}
+			int length = 0;
+			for (int i = p; i < end; i++) {
+				char c = issn.charAt(i);
+				if (c != '-') {
+					group[length++] = c == 'x' ? 'X' : c;
+				}
+			}
+			switch (length) {
+			case 8 -> normalizedIssns.add(new String(group, 0, 8)); // real ISSN
+			case 10 -> normalizedIsbns.add(new String(group, 0, 9)); // ISBN-10
+			case 13 -> normalizedIsbns.add(new String(group, 3, 9)); // ISBN-13
+			default -> {
+			}
+			}
+			p = end;
+		}
+		return new IsbnIssnRecord(normalizedIsbns, normalizedIssns);
+	}
+
+	private static IsbnIssnRecord normalizeInputIssnsWithPattern(String issn) {
 		Set<String> normalizedIsbns = new HashSet<>();
 		Set<String> normalizedIssns = new HashSet<>();
 		IsbnIssnRecord result = new IsbnIssnRecord(normalizedIsbns, normalizedIssns);
@@ -99,41 +217,155 @@ public class NormalizationService {
 		return result;
 	}
 
+	/*
+	 * ISSN_ISBN_PATTERN ("\\b([-\\dxX]{8,17})\\b") on an ASCII string: returns the end of the match which starts at p,
+	 * or -1. The regex takes at most 17 characters and gives them back until the end is a word boundary.
+	 */
+	private static int matchIssnIsbn(String s, int p) {
+		if (!isBoundary(s, p)) {
+			return -1;
+		}
+		int end = p;
+		while (end < s.length() && end - p < 17 && isIssnIsbnChar(s.charAt(end))) {
+			end++;
+		}
+		for (; end - p >= 8; end--) {
+			if (isBoundary(s, end)) {
+				return end;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isIssnIsbnChar(char c) {
+		return c == '-' || c == 'x' || c == 'X' || isDigit(c);
+	}
+
+	/*
+	 * PUBLICATION_YEAR_PATTERN ("(^|\\D)(\\d{4})(\\D|$)"): the first run of exactly 4 digits
+	 */
 	public static Integer normalizeInputPublicationYear(String input) {
-		Integer year = 0;
-		Matcher matcher = NormPatterns.PUBLICATION_YEAR_PATTERN.matcher(input);
-		if (matcher.find()) {
-			year = Integer.valueOf(matcher.group(2));
-			if (year < EARLIEST_PUBLICATION_YEAR) {
-				year = 0;
+		int n = input.length();
+		int i = 0;
+		while (i < n) {
+			if (!isDigit(input.charAt(i))) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < n && isDigit(input.charAt(i))) {
+				i++;
+			}
+			if (i - start == 4) {
+				int year = (input.charAt(start) - '0') * 1000 + (input.charAt(start + 1) - '0') * 100
+						+ (input.charAt(start + 2) - '0') * 10 + (input.charAt(start + 3) - '0');
+				return year < EARLIEST_PUBLICATION_YEAR ? 0 : year;
 			}
-		} else {
-			return 0;
 		}
-		return year;
+		return 0;
 	}
 
 	/**
 	 * normalizeToBasicLatin: removes accents and diacritics when the base character belongs to the BasicLatin Unicode
 	 * block (U+0000â€“U+007F) and removes all other characters.
+	 * Most input is pure ASCII and is returned unchanged after 1 scan (no regex). Otherwise the decomposed (NFD) string
+	 * is rewritten in 1 pass without the non BasicLatin characters (as NON_BASIC_LATIN_PATTERN.replaceAll("") did).
 	 */
 	public static String normalizeToBasicLatin(String s) {
-		if (NormPatterns.NON_BASIC_LATIN_PATTERN.matcher(s).find()) {
-			s = Normalizer.normalize(s, Normalizer.Form.NFD);
-			// you can't reuse the existing matcher because r might be changed
-			s = NormPatterns.NON_BASIC_LATIN_PATTERN.matcher(s).replaceAll("");
+		if (isAscii(s)) {
+			return s;
 		}
-		return s;
+		s = Normalizer.normalize(s, Normalizer.Form.NFD);
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
 	}
 
+	// @formatter:off
+	/*
+	 * normalizeHyphensAndWhitespace: in this order
+	 * - standardize / replace HYPHENs (Unicode Dash Punctuation, not Hyphen!) to HYPHEN-MINUS
+	 *   https://www.unicode.org/reports/tr44/#Dash
+	 *   https://www.compart.com/en/unicode/category/Pd
+	 * - remove THIN SPACE. Some databases use THIN SPACE within "30 mg", others use no character
+	 * - replace the other whitespace (NormPatterns.UNUSUAL_WHITESPACE_PATTERN) with SPACE
+	 *
+	 * Called for every line of the input file. Lines without TAB, LF, VT, FF, CR and without non ASCII characters
+	 * (nearly all lines) are returned unchanged after 1 scan. The other lines are rewritten in 1 pass over the code points,
+	 * with the Unicode categories (Character.getType) which the former regexes ("\\p{Pd}" and
+	 * UNUSUAL_WHITESPACE_PATTERN) used.
+	 */
+	// @formatter:on
 	public static String normalizeHyphensAndWhitespace(String s) {
-		// standardize / replace HYPHENs (Unicode Dash Punctuation, not Hyphen!) to HYPHEN-MINUS
-		// https://www.unicode.org/reports/tr44/#Dash
-		// https://www.compart.com/en/unicode/category/Pd
-		s = s.replaceAll("\\p{Pd}", "\u002D");
-		// remove THIN SPACE. Some databases use THIN SPACE within "30 mg", others use no character
-		s = s.replaceAll("\u2009", "");
-		s = NormPatterns.UNUSUAL_WHITESPACE_PATTERN.matcher(s).replaceAll(" ");
-		return s;
+		int i = 0;
+		int length = s.length();
+		while (i < length) {
+			char c = s.charAt(i);
+			if (c >= 0x80 || (c >= '\t' && c <= '\r')) {
+				break;
+			}
+			i++;
+		}
+		if (i == length) {
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(length);
+		sb.append(s, 0, i);
+		while (i < length) {
+			int codePoint = s.codePointAt(i);
+			i += Character.charCount(codePoint);
+			if (codePoint == '\u2009') {
+				continue;
+			}
+			switch (Character.getType(codePoint)) {
+			case Character.DASH_PUNCTUATION -> sb.append('-');
+			case Character.SPACE_SEPARATOR, Character.LINE_SEPARATOR, Character.PARAGRAPH_SEPARATOR -> sb.append(' ');
+			default -> {
+				if (codePoint >= '\t' && codePoint <= '\r') {
+					sb.append(' ');
+				} else {
+					sb.appendCodePoint(codePoint);
+				}
+			}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static char toLowerAscii(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	/*
+	 * Word boundary ("\\b") in an ASCII string: the word characters are [a-zA-Z0-9_]
+	 */
+	private static boolean isBoundary(String s, int i) {
+		return isWordChar(s, i - 1) != isWordChar(s, i);
+	}
+
+	private static boolean isWordChar(String s, int i) {
+		if (i < 0 || i >= s.length()) {
+			return false;
+		}
+		char c = s.charAt(i);
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
 	}
 }
@@ -0,0 +1,63 @@
+package edu.dedupendnote.services;
+
+/*
+ * The IDs of the records of 1 input file, used by IOService::readBibliographicItems to detect a duplicate ID as soon as
+ * it is read.
+ *
+ * Open addressing with linear probing in an int[] (kept at most half full): no boxing of the IDs as in a
+ * HashSet<Integer>. 0 marks an empty slot, which is possible because a record never has ID 0 when it is added (a
+ * record without (or with a 0) ID gets the next missingId, starting at 1).
+ */
+final class RecordIdSet {
+
+	private int[] slots = new int[1 << 10];
+	private int size = 0;
+
+	/*
+	 * Returns false if the id was already present
+	 */
+	boolean add(int id) {
+		if (id == 0) {
+			throw new IllegalArgumentException("ID 0 can't be added");
+		}
+		if (2 * (size + 1) > slots.length) {
+			resize();
+		}
+		int mask = slots.length - 1;
+		int i = hash(id) & mask;
+		while (slots[i] != 0) {
+			if (slots[i] == id) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		slots[i] = id;
+		size++;
+		return true;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void resize() {
+		int[] oldSlots = slots;
+		slots = new int[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for (int id : oldSlots) {
+			if (id != 0) {
+				int i = hash(id) & mask;
+				while (slots[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				slots[i] = id;
+			}
+		}
+	}
+
+	/* the IDs are mostly consecutive numbers: spread them over the slots (Fibonacci hashing) */
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
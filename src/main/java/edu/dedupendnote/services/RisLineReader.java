@@ -0,0 +1,116 @@
+package edu.dedupendnote.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.jspecify.annotations.Nullable;
+
+/*
+ * Line reader for RIS files which keeps track of the byte offsets of the lines.
+ *
+ * The lines are split and decoded in the same way as BufferedReader::readLine over a FileReader (UTF-8) does:
+ * "\n", "\r" and "\r\n" end a line, and malformed input is replaced. A leading UTF-8 BOM is skipped.
+ *
+ * The byte offsets make it possible to copy the bytes of a complete record from the input file to the output file
+ * (see IOService::writeBibliographicItems). For a gzip compressed input file they are offsets in the decompressed
+ * stream, and can't be used for copying.
+ */
+class RisLineReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InputStream inputStream;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPosition = 0;
+	private int bufferLimit = 0;
+
+	private byte[] lineBytes = new byte[256];
+	private int lineLength;
+
+	private long position = 0;
+	private long lineStart = 0;
+	private boolean lineEndsWithLineFeed = false;
+
+	/*
+	 * The inputStream is closed by close()
+	 */
+	RisLineReader(InputStream inputStream) throws IOException {
+		this.inputStream = inputStream;
+		if (fill() >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF) {
+			bufferPosition = 3;
+			position = 3;
+		}
+	}
+
+	/*
+	 * Returns the next line without the line terminator, or null at the end of the file
+	 */
+	@Nullable
+	String readLine() throws IOException {
+		lineStart = position;
+		lineLength = 0;
+		lineEndsWithLineFeed = false;
+		while (true) {
+			if (bufferPosition == bufferLimit && fill() <= 0) {
+				return position == lineStart ? null : decodeLine();
+			}
+			byte b = buffer[bufferPosition++];
+			position++;
+			if (b == '\n') {
+				lineEndsWithLineFeed = true;
+				return decodeLine();
+			}
+			if (b == '\r') {
+				if ((bufferPosition < bufferLimit || fill() > 0) && buffer[bufferPosition] == '\n') {
+					bufferPosition++;
+					position++;
+				}
+				return decodeLine();
+			}
+			if (lineLength == lineBytes.length) {
+				lineBytes = Arrays.copyOf(lineBytes, lineLength * 2);
+			}
+			lineBytes[lineLength++] = b;
+		}
+	}
+
+	/*
+	 * Byte offset of the first byte of the last line read
+	 */
+	long getLineStart() {
+		return lineStart;
+	}
+
+	/*
+	 * Byte offset just after the line terminator of the last line read
+	 */
+	long getLineEnd() {
+		return position;
+	}
+
+	/*
+	 * True if the last line read was terminated by a single "\n", the line terminator used in the output files
+	 */
+	boolean lineEndsWithLineFeed() {
+		return lineEndsWithLineFeed;
+	}
+
+	private String decodeLine() {
+		return new String(lineBytes, 0, lineLength, StandardCharsets.UTF_8);
+	}
+
+	private int fill() throws IOException {
+		int n = inputStream.read(buffer, 0, BUFFER_SIZE);
+		bufferPosition = 0;
+		bufferLimit = Math.max(n, 0);
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inputStream.close();
+	}
+}
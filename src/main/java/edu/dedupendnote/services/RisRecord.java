@@ -0,0 +1,193 @@
+package edu.dedupendnote.services;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+
+import org.jspecify.annotations.Nullable;
+
+// @formatter:off
+/*
+ * The fields of 1 RIS record, used by IOService to write a record to the output file.
+ *
+ * A RIS tag ([A-Z][A-Z0-9]) is mapped to an ordinal which follows the alphabetical order of the tags
+ * (digits sort before letters: "T2" < "T3" < "TI"). The content of a field is kept in a StringBuilder at the index of
+ * its ordinal, and the tags present in the record are kept in a BitSet. Walking the BitSet gives the fields in the
+ * order of an EndNote export file without sorting, and without the TreeMap and the regex on the field names which
+ * were used before.
+ *
+ * - repeated fields are added to the content of the first field as "\n" + the complete line ("AU  - ..."),
+ *   continuation lines as "\n" + the line. This is the format in which writeTo(...) writes them back.
+ * - the StringBuilders are reused for the next record after clear()
+ * - a RisRecord is not thread safe: use 1 instance per write loop
+ */
+// @formatter:on
+public final class RisRecord {
+
+	private static final int NUMBER_OF_TAGS = 26 * 36;
+
+	public static final int TY = ordinal("TY");
+	public static final int ID = ordinal("ID");
+	public static final int ER = ordinal("ER");
+	public static final int C7 = ordinal("C7");
+	public static final int AU = ordinal("AU");
+	public static final int CA = ordinal("CA");
+	public static final int DO = ordinal("DO");
+	public static final int J2 = ordinal("J2");
+	public static final int LB = ordinal("LB");
+	public static final int PY = ordinal("PY");
+	public static final int SP = ordinal("SP");
+	public static final int ST = ordinal("ST");
+	public static final int T2 = ordinal("T2");
+	public static final int TI = ordinal("TI");
+	public static final int UR = ordinal("UR");
+
+	/* "AU  - ", "AV  - ", ...: the start of the output line, indexed by ordinal */
+	private static final String[] LINE_STARTS = new String[NUMBER_OF_TAGS];
+	static {
+		for (int i = 0; i < NUMBER_OF_TAGS; i++) {
+			LINE_STARTS[i] = tag(i) + "  - ";
+		}
+	}
+
+	private final StringBuilder[] fields = new StringBuilder[NUMBER_OF_TAGS];
+	private final BitSet present = new BitSet(NUMBER_OF_TAGS);
+	/* ordinal of the field which gets the continuation lines, -1 if continuation lines are skipped */
+	private int previousOrdinal = -1;
+	private char[] writeBuffer = new char[1024];
+
+	/*
+	 * Returns the ordinal of a RIS tag, or -1 if the tag doesn't have the format [A-Z][A-Z0-9]
+	 */
+	public static int ordinal(CharSequence tag) {
+		if (tag.length() != 2) {
+			return -1;
+		}
+		char c1 = tag.charAt(0);
+		char c2 = tag.charAt(1);
+		if (c1 < 'A' || c1 > 'Z') {
+			return -1;
+		}
+		int second;
+		if (c2 >= '0' && c2 <= '9') {
+			second = c2 - '0';
+		} else if (c2 >= 'A' && c2 <= 'Z') {
+			second = 10 + c2 - 'A';
+		} else {
+			return -1;
+		}
+		return (c1 - 'A') * 36 + second;
+	}
+
+	public static String tag(int ordinal) {
+		int second = ordinal % 36;
+		return new String(new char[] { (char) ('A' + ordinal / 36),
+				(char) (second < 10 ? '0' + second : 'A' + second - 10) });
+	}
+
+	public void clear() {
+		for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+			fields[i].setLength(0);
+		}
+		present.clear();
+		previousOrdinal = -1;
+	}
+
+	/*
+	 * Adds a field line. If the field is already present, "\n" + line is appended, otherwise the fieldContent is the
+	 * content. The following continuation lines are added to this field.
+	 */
+	public void addField(int ordinal, String fieldContent, String line) {
+		StringBuilder sb = builder(ordinal);
+		if (present.get(ordinal)) {
+			sb.append('\n').append(line);
+		} else {
+			sb.append(fieldContent);
+			present.set(ordinal);
+		}
+		previousOrdinal = ordinal;
+	}
+
+	/*
+	 * Adds a continuation line to the last field added with addField. The line is skipped if there is no such field,
+	 * or after skipContinuationLines().
+	 */
+	public void addContinuationLine(String line) {
+		if (previousOrdinal >= 0) {
+			fields[previousOrdinal].append('\n').append(line);
+		}
+	}
+
+	/*
+	 * The continuation lines up to the next addField(...) are skipped
+	 */
+	public void skipContinuationLines() {
+		previousOrdinal = -1;
+	}
+
+	public boolean contains(int ordinal) {
+		return present.get(ordinal);
+	}
+
+	public @Nullable String get(int ordinal) {
+		return present.get(ordinal) ? fields[ordinal].toString() : null;
+	}
+
+	/*
+	 * Replaces the content of the field. A null content is written as "null" (as the TreeMap before did).
+	 */
+	public void put(int ordinal, @Nullable String fieldContent) {
+		StringBuilder sb = builder(ordinal);
+		sb.setLength(0);
+		sb.append(fieldContent);
+		present.set(ordinal);
+	}
+
+	public void remove(int ordinal) {
+		if (present.get(ordinal)) {
+			fields[ordinal].setLength(0);
+			present.clear(ordinal);
+		}
+	}
+
+	/*
+	 * Ordering of an EndNote export RIS file: the fields are ordered alphabetically, except for TY (first), and ID and
+	 * ER (last fields). ER is written empty and followed by an empty line. Absent TY and ID fields are written as
+	 * "null". If skipArticleNumber is true, the C7 field is not written.
+	 */
+	public void writeTo(Writer writer, boolean skipArticleNumber) throws IOException {
+		writeField(writer, TY);
+		for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+			if (i != TY && i != ID && i != ER && !(skipArticleNumber && i == C7)) {
+				writeField(writer, i);
+			}
+		}
+		writeField(writer, ID);
+		writer.write("ER  - \n\n");
+	}
+
+	private void writeField(Writer writer, int ordinal) throws IOException {
+		writer.write(LINE_STARTS[ordinal]);
+		if (present.get(ordinal)) {
+			StringBuilder sb = fields[ordinal];
+			int length = sb.length();
+			if (length > writeBuffer.length) {
+				writeBuffer = new char[Math.max(length, writeBuffer.length * 2)];
+			}
+			sb.getChars(0, length, writeBuffer, 0);
+			writer.write(writeBuffer, 0, length);
+		} else {
+			writer.write("null");
+		}
+		writer.write('\n');
+	}
+
+	private StringBuilder builder(int ordinal) {
+		StringBuilder sb = fields[ordinal];
+		if (sb == null) {
+			sb = new StringBuilder(64);
+			fields[ordinal] = sb;
+		}
+		return sb;
+	}
+}
@@ -0,0 +1,208 @@
+package edu.dedupendnote.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.jspecify.annotations.Nullable;
+
+import edu.dedupendnote.domain.BibliographicItem;
+
+// @formatter:off
+/*
+ * RisRecordSpan follows the lines of 1 record in the input file while IOService writes the output file, and decides
+ * whether the record can be copied byte for byte from the input file ("verbatim") instead of being rewritten by
+ * IOService::writeBibliographicItem.
+ *
+ * A record is written verbatim if the rewrite would produce exactly the same bytes:
+ * - the record starts with TY, ends with ID and ER, and the other fields are in alphabetical order
+ *   (the order of an EndNote export file, and the order in which writeBibliographicItem writes the fields)
+ * - all lines end with "\n" and are not changed by NormalizationService::normalizeHyphensAndWhitespace
+ * - all field lines use "  - " as separator (EndNote writes "  -," when the content starts with a comma)
+ * - the ER field is empty
+ * - Mark mode: there is no LB field in the input and the bibliographicItem has no label
+ * - Remove mode: the enhancements of writeBibliographicItem (DOI, pages, title, year, T2, ...) do not change
+ *   the fields (see isUnchangedByEnhancement)
+ *
+ * The span starts at the TY line and ends after the ER line. The empty line after the ER line is written by the caller.
+ */
+// @formatter:on
+class RisRecordSpan {
+
+	/*
+	 * The fields which writeBibliographicItem reads or changes in enhance mode
+	 */
+	private static final Set<String> ENHANCED_FIELDS = Set.of("AU", "C7", "DO", "J2", "PY", "SP", "ST", "T2", "TI");
+
+	private final boolean enhance;
+
+	private boolean verbatim;
+	private boolean typeSeen;
+	private boolean idSeen;
+	private boolean endSeen;
+	private long start;
+	private long end;
+	private String lastFieldName = "";
+	private String previousFieldName = "XYZ";
+	private final Map<String, String> enhancedFields = new HashMap<>();
+
+	RisRecordSpan(boolean enhance) {
+		this.enhance = enhance;
+		reset();
+	}
+
+	void reset() {
+		verbatim = true;
+		typeSeen = false;
+		idSeen = false;
+		endSeen = false;
+		start = -1;
+		end = -1;
+		lastFieldName = "";
+		previousFieldName = "XYZ";
+		enhancedFields.clear();
+	}
+
+	/*
+	 * rawLine: the line as read, line: the line after normalizeHyphensAndWhitespace. fieldName and fieldContent
+	 * are null for continuation lines
+	 */
+	void addLine(String rawLine, String line, @Nullable String fieldName, @Nullable String fieldContent,
+			long lineStart, long lineEnd, boolean endsWithLineFeed) {
+		if (fieldName == null) {
+			addContinuationLine(rawLine, line, lineEnd, endsWithLineFeed);
+			return;
+		}
+		previousFieldName = fieldName;
+		if (!verbatim) {
+			return;
+		}
+		if (!endsWithLineFeed || !rawLine.equals(line) || line.charAt(5) != ' ') {
+			verbatim = false;
+			return;
+		}
+		switch (fieldName) {
+		case "TY" -> {
+			if (typeSeen) {
+				verbatim = false;
+			}
+			typeSeen = true;
+			start = lineStart;
+		}
+		case "ID" -> {
+			if (!typeSeen || idSeen) {
+				verbatim = false;
+			}
+			idSeen = true;
+		}
+		case "ER" -> {
+			if (!idSeen || fieldContent == null || !fieldContent.isEmpty()) {
+				verbatim = false;
+			}
+			endSeen = true;
+			end = lineEnd;
+		}
+		case "LB" -> {
+			// Mark mode replaces the LB field with the label
+			if (!enhance) {
+				verbatim = false;
+			}
+			checkOrder(fieldName);
+		}
+		default -> checkOrder(fieldName);
+		}
+		if (enhance && verbatim && ENHANCED_FIELDS.contains(fieldName)) {
+			enhancedFields.merge(fieldName, Objects.requireNonNull(fieldContent), (v1, v2) -> v1 + "\n" + line);
+		}
+	}
+
+	private void addContinuationLine(String rawLine, String line, long lineEnd, boolean endsWithLineFeed) {
+		if (!verbatim || !typeSeen) {
+			// continuation lines before TY belong to the previous record and are not written
+			return;
+		}
+		if (!endsWithLineFeed || !rawLine.equals(line) || idSeen) {
+			// after the ID field continuation lines are dropped by writeBibliographicItem
+			verbatim = false;
+			return;
+		}
+		if (enhance && enhancedFields.containsKey(previousFieldName)) {
+			enhancedFields.merge(previousFieldName, line, (v1, v2) -> v1 + "\n" + v2);
+		}
+	}
+
+	private void checkOrder(String fieldName) {
+		if (!typeSeen || idSeen || fieldName.compareTo(lastFieldName) < 0) {
+			verbatim = false;
+		}
+		lastFieldName = fieldName;
+	}
+
+	/*
+	 * Called at the ER field of the record. The bibliographicItem is the item which will be written.
+	 */
+	boolean isVerbatim(BibliographicItem bibliographicItem) {
+		if (!verbatim || !endSeen || start < 0) {
+			return false;
+		}
+		if (enhance) {
+			return isUnchangedByEnhancement(bibliographicItem);
+		}
+		return !bibliographicItem.hasCluster();
+	}
+
+	long getStart() {
+		return start;
+	}
+
+	long getLength() {
+		return end - start;
+	}
+
+	/*
+	 * Mirrors the enhancements of IOService::writeBibliographicItem: returns false as soon as one of them would change
+	 * the record
+	 */
+	private boolean isUnchangedByEnhancement(BibliographicItem bibliographicItem) {
+		if (enhancedFields.containsKey("C7") || bibliographicItem.isClinicalTrialGov()) {
+			return false;
+		}
+		if (!bibliographicItem.getDois().isEmpty()) {
+			String dois = "https://doi.org/"
+					+ bibliographicItem.getDois().stream().collect(Collectors.joining("\nhttps://doi.org/"));
+			if (!dois.equals(enhancedFields.get("DO"))) {
+				return false;
+			}
+		}
+		String pagesOutput = bibliographicItem.getPagesOutput();
+		if (pagesOutput == null || pagesOutput.isEmpty()) {
+			if (enhancedFields.containsKey("SP")) {
+				return false;
+			}
+		} else if (!pagesOutput.equals(enhancedFields.get("SP"))) {
+			return false;
+		}
+		if (bibliographicItem.isReply() || bibliographicItem.getTitle() != null) {
+			String title = bibliographicItem.getTitle();
+			if (title == null || !title.equals(enhancedFields.get("TI")) || !title.equals(enhancedFields.get("ST"))) {
+				return false;
+			}
+		}
+		if (bibliographicItem.getAllAuthors().isEmpty()
+				&& ("Anonymous".equals(enhancedFields.get("AU")) || "Nct".equals(enhancedFields.get("AU")))) {
+			return false;
+		}
+		if (!enhancedFields.containsKey("PY") && bibliographicItem.getPublicationYear() != 0) {
+			return false;
+		}
+		if (!enhancedFields.containsKey("T2")) {
+			String doi = enhancedFields.get("DO");
+			if (enhancedFields.containsKey("J2") || (doi != null && doi.contains("https://doi.org/10.2139/ssrn"))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,61 @@
+package edu.dedupendnote.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+
+/*
+ * The normalized field values of 1 input file, used by IOService::readBibliographicItems (when a record is finished)
+ * and by NormalizationCache (for new results) to replace equal Strings by 1 instance: the same ISSN, DOI, reference
+ * type or journal name in many records is then stored only once. The equals of these Strings in the comparisons is
+ * then mostly an identity check.
+ *
+ * Not String::intern: the pool is released with the NormalizationCache after the file has been read.
+ */
+final class StringPool {
+
+	private final Map<String, String> strings = new HashMap<>();
+
+	String intern(String s) {
+		String pooled = strings.putIfAbsent(s, s);
+		return pooled == null ? s : pooled;
+	}
+
+	@Nullable
+	String internNullable(@Nullable String s) {
+		return s == null ? null : intern(s);
+	}
+
+	void internAll(List<String> list) {
+		list.replaceAll(this::intern);
+	}
+
+	/*
+	 * Only rebuilds the Set when a String is replaced. clear() keeps the table of the HashSet, and adding the Strings
+	 * in the iteration order keeps that order.
+	 */
+	void internAll(Set<String> set) {
+		if (set.isEmpty()) {
+			return;
+		}
+		List<String> pooled = new ArrayList<>(set.size());
+		boolean replaced = false;
+		for (String s : set) {
+			String p = intern(s);
+			replaced |= p != s;
+			pooled.add(p);
+		}
+		if (replaced) {
+			set.clear();
+			set.addAll(pooled);
+		}
+	}
+
+	int size() {
+		return strings.size();
+	}
+}
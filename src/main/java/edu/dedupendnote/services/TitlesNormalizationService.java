@@ -1,5 +1,6 @@
 package edu.dedupendnote.services;
 
+import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -81,26 +82,7 @@ public class TitlesNormalizationService {
 			normalizedTitles.addAll(addTitleWithNormalization(title));
 		}
 
-		boolean splittable = true;
-		String secondPart = title;
-
-		while (splittable) {
-			Matcher matcher = NormPatterns.TITLE_AND_SUBTITLE_PATTERN.matcher(secondPart);
-			if (matcher.find()) {
-				// titles.add(matcher.group(1)); // add only the first part (min 50 characters)
-				String firstPart = matcher.group(1); // add only the first part (min 50 characters)
-				secondPart = matcher.group(2);
-				if (firstPart.toLowerCase().endsWith("vs")) {
-					normalizedTitles.addAll(addTitleWithNormalization(firstPart + " " + secondPart));
-					// we could set splittable to false, but then 2nd part wont be split
-				} else {
-					normalizedTitles.addAll(addTitleWithNormalization(firstPart));
-					normalizedTitles.addAll(addTitleWithNormalization(secondPart));
-				}
-			} else {
-				splittable = false;
-			}
-		}
+		normalizedTitles.addAll(normalizeSplitTitles(title));
 
 		// Matcher matcher = titleAndSubtitlePattern.matcher(title);
 		// while (matcher.find()) {
@@ -127,7 +109,363 @@ public class TitlesNormalizationService {
 		return titles;
 	}
 
+	private static final String[] LANGUAGES = { "chinese", "dutch", "french", "german", "italian", "japanese", "polish",
+			"russian", "spanish" };
+	private static final ThreadLocal<char[]> TITLE_BUFFER = ThreadLocal.withInitial(() -> new char[256]);
+
+	// @formatter:off
+	/*
+	 * normalizeTitle gives the same result as normalizeTitleWithPatterns (the chain of regexes), but with 2 passes
+	 * instead of 12 replaceAll's which each create a new String:
+	 * - pass 1 (prepare): normalizeToBasicLatin, remove DOUBLE_QUOTES_PATTERN and lowercase
+	 * - scan for PARTIAL_ENDING_PUNCTUATION_PATTERN (in the title, because the punctuation need not be ASCII)
+	 * - remove LANGUAGE_PATTERN, TRANSLATION_PATTERN (at the end), CASE_REPORT_PATTERN (at the start) and
+	 *   NON_INITIAL_SQUARE_BRACKETS_PATTERN (at the end) by moving the start and end of the title in the prepared chars
+	 * - pass 2: remove POINTY_BRACKETS_PATTERN, ROUND_BRACKETS_PATTERN and HYPHEN_PATTERN, replace the other
+	 *   NON_ASCII_LOWERCASE_PATTERN characters by 1 SPACE (strip and MULTIPLE_WHITE_SPACE_PATTERN), written to a
+	 *   reusable char buffer of the thread
+	 * - remove STARTING_ARTICLE_PATTERN
+	 * The prepared title is shared by the parts of the title (normalizeSplitTitles).
+	 *
+	 * The "$" of the regexes also matches before a line terminator at the end of the title. The rare titles with a line
+	 * terminator (e.g. from "&#10;" in unescapeHtml4) are normalized by normalizeTitleWithPatterns.
+	 * TitlesNormalizationServiceTest compares both implementations.
+	 */
+	// @formatter:on
 	public static String normalizeTitle(String s) {
+		if (containsLineTerminator(s)) {
+			return normalizeTitleWithPatterns(s);
+		}
+		return normalizeTitle(prepare(s), 0, s.length());
+	}
+
+	// @formatter:off
+	/*
+	 * normalizeSplitTitles: the normalized parts of the title which TITLE_AND_SUBTITLE_PATTERN ("^(.{20,}?)[:.?;] (.{40,})$")
+	 * finds when it is applied to the title, and again to the second part, and again ...
+	 * - the separators are found in 1 scan which never goes back: the first part is the shortest with at least 20
+	 *   characters, and if the second part is then shorter than 40 characters, it will be shorter after the next
+	 *   separators too
+	 * - all parts are windows of the prepared title: the ending punctuation, basic latin and lowercasing is done once
+	 * - a first part ending with "vs" is not split from its second part: "<first part> <second part>" is normalized as
+	 *   the window from the start of the first part to the end (the separator becomes a SPACE in both)
+	 *
+	 * For a title with a line terminator or a surrogate pair (which "." doesn't match, or matches as 1 character) the
+	 * pattern itself is used.
+	 */
+	// @formatter:on
+	public static List<String> normalizeSplitTitles(String title) {
+		if (containsLineTerminator(title) || containsSurrogate(title)) {
+			return normalizeSplitTitlesWithPattern(title);
+		}
+		List<String> normalizedTitles = new ArrayList<>();
+		PreparedTitle preparedTitle = null;
+		int length = title.length();
+		int firstStart = 0;
+		int separator = firstStart + 20;
+		while (true) {
+			while (separator + 1 < length && !(isSubtitleSeparator(title.charAt(separator))
+					&& title.charAt(separator + 1) == ' ')) {
+				separator++;
+			}
+			int secondStart = separator + 2;
+			if (secondStart > length || length - secondStart < 40) {
+				break;
+			}
+			if (preparedTitle == null) {
+				preparedTitle = prepare(title);
+			}
+			if (Character.toLowerCase(title.charAt(separator - 2)) == 'v'
+					&& Character.toLowerCase(title.charAt(separator - 1)) == 's') {
+				addIfNotEmpty(normalizeTitle(preparedTitle, firstStart, length), normalizedTitles);
+			} else {
+				addIfNotEmpty(normalizeTitle(preparedTitle, firstStart, separator), normalizedTitles);
+				addIfNotEmpty(normalizeTitle(preparedTitle, secondStart, length), normalizedTitles);
+			}
+			firstStart = secondStart;
+			separator = firstStart + 20;
+		}
+		return normalizedTitles;
+	}
+
+	private static List<String> normalizeSplitTitlesWithPattern(String title) {
+		List<String> normalizedTitles = new ArrayList<>();
+		boolean splittable = true;
+		String secondPart = title;
+
+		while (splittable) {
+			Matcher matcher = NormPatterns.TITLE_AND_SUBTITLE_PATTERN.matcher(secondPart);
+			if (matcher.find()) {
+				String firstPart = matcher.group(1);
+				secondPart = matcher.group(2);
+				if (firstPart.toLowerCase().endsWith("vs")) {
+					normalizedTitles.addAll(addTitleWithNormalization(firstPart + " " + secondPart));
+					// we could set splittable to false, but then 2nd part wont be split
+				} else {
+					normalizedTitles.addAll(addTitleWithNormalization(firstPart));
+					normalizedTitles.addAll(addTitleWithNormalization(secondPart));
+				}
+			} else {
+				splittable = false;
+			}
+		}
+		return normalizedTitles;
+	}
+
+	private static boolean isSubtitleSeparator(char c) {
+		return c == ':' || c == '.' || c == '?' || c == ';';
+	}
+
+	/* normalizeTitle only returns [a-z0-9 ], so the split("=") of addTitleWithNormalization is not necessary */
+	private static void addIfNotEmpty(String normalized, List<String> normalizedTitles) {
+		if (!normalized.isEmpty()) {
+			normalizedTitles.add(normalized);
+		}
+	}
+
+	/*
+	 * The title after normalizeToBasicLatin, without double quotes and lowercased. offsets[i] is the position in chars
+	 * for position i in the title.
+	 * normalizeToBasicLatin (NFD and removal of the non ASCII characters) is done per code point: the canonical
+	 * reordering of NFD never moves an ASCII character, so the result is the same as for the whole title.
+	 */
+	private record PreparedTitle(String title, char[] chars, int[] offsets) {
+	}
+
+	private static PreparedTitle prepare(String title) {
+		char[] chars = new char[title.length()];
+		int[] offsets = new int[title.length() + 1];
+		int length = 0;
+		int i = 0;
+		while (i < title.length()) {
+			char c = title.charAt(i);
+			offsets[i] = length;
+			if (c < 0x80) {
+				if (c != '"') {
+					chars[length++] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+				}
+				i++;
+				continue;
+			}
+			int codePoint = title.codePointAt(i);
+			String decomposed = Normalizer.normalize(Character.toString(codePoint), Normalizer.Form.NFD);
+			for (int j = 0; j < decomposed.length(); j++) {
+				char d = decomposed.charAt(j);
+				if (d < 0x80 && d != '"') {
+					if (length == chars.length) {
+						chars = Arrays.copyOf(chars, 2 * chars.length);
+					}
+					chars[length++] = (d >= 'A' && d <= 'Z') ? (char) (d + ('a' - 'A')) : d;
+				}
+			}
+			if (Character.charCount(codePoint) == 2) {
+				offsets[i + 1] = length;
+			}
+			i += Character.charCount(codePoint);
+		}
+		offsets[title.length()] = length;
+		return new PreparedTitle(title, chars, offsets);
+	}
+
+	/*
+	 * normalizeTitle for the part [from, to) of the prepared title
+	 */
+	private static String normalizeTitle(PreparedTitle preparedTitle, int from, int to) {
+		String title = preparedTitle.title();
+		char[] chars = preparedTitle.chars();
+		// PARTIAL_ENDING_PUNCTUATION_PATTERN
+		int cut = to;
+		while (cut > from) {
+			int codePoint = title.codePointBefore(cut);
+			if (codePoint == ')' || codePoint == ']' || !isPunctuation(codePoint)) {
+				break;
+			}
+			cut -= Character.charCount(codePoint);
+		}
+		int start = preparedTitle.offsets()[from];
+		int end = preparedTitle.offsets()[cut];
+		end = removeLanguage(chars, start, end);
+		if (endsWith(chars, start, end, "(author's transl)")) {
+			end -= "(author's transl)".length();
+		}
+		start = skipCaseReport(chars, start, end);
+		end = removeNonInitialSquareBrackets(chars, start, end);
+
+		char[] buf = TITLE_BUFFER.get();
+		if (buf.length < end - start) {
+			buf = new char[Math.max(end - start, 2 * buf.length)];
+			TITLE_BUFFER.set(buf);
+		}
+		int length = 0;
+		boolean space = false;
+		boolean closingPointyBracket = true;
+		for (int i = start; i < end; i++) {
+			char c = chars[i];
+			if (c == '<' && closingPointyBracket && i + 1 < end && chars[i + 1] != '>') {
+				int j = i + 2;
+				while (j < end && chars[j] != '>') {
+					j++;
+				}
+				if (j < end) {
+					while (j + 1 < end && chars[j + 1] == '>') {
+						j++;
+					}
+					i = j;
+					continue;
+				}
+				// no '>' after this '<', so also not after the next ones
+				closingPointyBracket = false;
+			}
+			if (c == '(' || c == ')' || c == '-') {
+				continue;
+			}
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				if (space && length > 0) {
+					buf[length++] = ' ';
+				}
+				space = false;
+				buf[length++] = c;
+			} else {
+				space = true;
+			}
+		}
+		// STARTING_ARTICLE_PATTERN
+		int first = 0;
+		if (startsWith(buf, length, "the ")) {
+			first = 4;
+		} else if (startsWith(buf, length, "a ")) {
+			first = 2;
+		} else if (startsWith(buf, length, "an ")) {
+			first = 3;
+		}
+		return new String(buf, first, length - first);
+	}
+
+	private static boolean containsSurrogate(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (Character.isSurrogate(s.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsLineTerminator(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Unicode category P ("\\p{P}" in PARTIAL_ENDING_PUNCTUATION_PATTERN) */
+	private static boolean isPunctuation(int codePoint) {
+		return switch (Character.getType(codePoint)) {
+		case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+				Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION, Character.FINAL_QUOTE_PUNCTUATION,
+				Character.OTHER_PUNCTUATION ->
+			true;
+		default -> false;
+		};
+	}
+
+	private static boolean startsWith(char[] buf, int end, String prefix) {
+		return endsWith(buf, 0, Math.min(end, prefix.length()), prefix);
+	}
+
+	private static boolean endsWith(char[] buf, int start, int end, String suffix) {
+		int offset = end - suffix.length();
+		if (offset < start) {
+			return false;
+		}
+		for (int i = 0; i < suffix.length(); i++) {
+			if (buf[offset + i] != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * LANGUAGE_PATTERN: returns the new end
+	 */
+	private static int removeLanguage(char[] buf, int start, int end) {
+		int e = end;
+		if (e > start && buf[e - 1] == ')') {
+			e--;
+		}
+		if (endsWith(buf, start, e, " text")) {
+			e -= " text".length();
+		}
+		for (String language : LANGUAGES) {
+			if (endsWith(buf, start, e, language)) {
+				int languageStart = e - language.length();
+				return (languageStart > start && buf[languageStart - 1] == '(') ? languageStart - 1 : languageStart;
+			}
+		}
+		return end;
+	}
+
+	/*
+	 * CASE_REPORT_PATTERN: returns the new start
+	 */
+	private static int skipCaseReport(char[] buf, int start, int end) {
+		int p = start + "case ".length();
+		if (p > end || !endsWith(buf, start, p, "case ")) {
+			return start;
+		}
+		if (endsWith(buf, p, Math.min(end, p + 6), "report")) {
+			p += 6;
+			if (p < end && buf[p] == 's') {
+				p++;
+			}
+		} else if (endsWith(buf, p, Math.min(end, p + 6), "series")) {
+			p += 6;
+		} else {
+			int q = p;
+			while (q < end && ((buf[q] >= '0' && buf[q] <= '9') || buf[q] == '-')) {
+				q++;
+			}
+			if (q == p) {
+				return start;
+			}
+			p = q;
+		}
+		if (p + 1 < end && (buf[p] == '.' || buf[p] == ':') && buf[p + 1] == ' ') {
+			return p + 2;
+		}
+		return start;
+	}
+
+	/*
+	 * NON_INITIAL_SQUARE_BRACKETS_PATTERN: the first non initial '[' after which (up to the final ']') there is no
+	 * backslash, and at least 1 character. Returns the new end.
+	 */
+	private static int removeNonInitialSquareBrackets(char[] buf, int start, int end) {
+		if (end - start < 4 || buf[end - 1] != ']') {
+			return end;
+		}
+		int k = start + 1;
+		for (int i = start; i < end - 1; i++) {
+			if (buf[i] == '\\') {
+				k = Math.max(k, i + 1);
+			}
+		}
+		for (; k <= end - 3; k++) {
+			if (buf[k] == '[') {
+				return k - 1;
+			}
+		}
+		return end;
+	}
+
+	/*
+	 * The chain of regexes which normalizeTitle replaces. Used for titles with a line terminator, and as reference in
+	 * the tests.
+	 */
+	public static String normalizeTitleWithPatterns(String s) {
 		String r = NormPatterns.PARTIAL_ENDING_PUNCTUATION_PATTERN.matcher(s).replaceAll("");
 		r = NormalizationService.normalizeToBasicLatin(r);
 		r = NormPatterns.DOUBLE_QUOTES_PATTERN.matcher(r).replaceAll("");
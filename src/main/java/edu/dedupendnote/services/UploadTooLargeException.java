@@ -0,0 +1,11 @@
+package edu.dedupendnote.services;
+
+/*
+ * An upload without Content-Length (chunked) which has become larger than the maximum file size while it was read
+ */
+public class UploadTooLargeException extends InvalidRisFileException {
+
+	public UploadTooLargeException(long maxBytes) {
+		super("The upload is larger than " + maxBytes + " bytes");
+	}
+}
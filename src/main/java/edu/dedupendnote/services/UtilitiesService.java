@@ -1,13 +1,18 @@
 package edu.dedupendnote.services;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
@@ -17,6 +22,8 @@ import edu.dedupendnote.domain.DeduplicationMode;
 @Service
 public class UtilitiesService {
 
+	private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
 	/*
 	 * detectBom: Detect UTF-8 BOM
 	 *
@@ -30,7 +37,7 @@ public class UtilitiesService {
 	 */
 	public static boolean detectBom(String inputFileName) {
 		boolean hasBom = false;
-		try (BufferedReader br = new BufferedReader(new FileReader(inputFileName))) {
+		try (BufferedReader br = newBufferedReader(inputFileName)) {
 			String line = br.readLine();
 			hasBom = line != null && line.startsWith("\uFEFF");
 		} catch (IOException e) {
@@ -39,12 +46,60 @@ public class UtilitiesService {
 		return hasBom;
 	}
 
+	/*
+	 * isGzipped: Detect a gzip compressed file (.ris.gz, .txt.gz) by its magic number, not by its extension
+	 */
+	public static boolean isGzipped(String inputFileName) {
+		try (InputStream inputStream = Files.newInputStream(Path.of(inputFileName))) {
+			return inputStream.read() == (GZIPInputStream.GZIP_MAGIC & 0xFF)
+					&& inputStream.read() == (GZIPInputStream.GZIP_MAGIC >> 8);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Opens the input file, and decompresses it while reading if it is gzip compressed. The file is never
+	 * decompressed to disk.
+	 */
+	public static InputStream newInputStream(String inputFileName) throws IOException {
+		InputStream inputStream = Files.newInputStream(Path.of(inputFileName));
+		if (isGzipped(inputFileName)) {
+			return new GZIPInputStream(inputStream, GZIP_BUFFER_SIZE);
+		}
+		return inputStream;
+	}
+
+	public static BufferedReader newBufferedReader(String inputFileName) throws IOException {
+		return new BufferedReader(new InputStreamReader(newInputStream(inputFileName), StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * For DeduplicationMode.BOTH this is the name of the deduplicated file. The name of the marked file is
+	 * createOutputFileName(fileName, DeduplicationMode.MARK), the ZIP file with both is createZipFileName(fileName).
+	 * The output files of a gzip compressed input file are not compressed: "x.ris.gz" gives "x_deduplicated.ris".
+	 */
 	public static String createOutputFileName(String fileName, DeduplicationMode mode) {
+		fileName = removeGzipExtension(fileName);
 		String extension = StringUtils.getFilenameExtension(fileName);
 		return fileName.replaceAll("." + extension + "$",
 				(mode == DeduplicationMode.MARK ? "_mark." : "_deduplicated.") + extension);
 	}
 
+	public static String createZipFileName(String fileName) {
+		fileName = removeGzipExtension(fileName);
+		String extension = StringUtils.getFilenameExtension(fileName);
+		return fileName.replaceAll("." + extension + "$", "_deduplicated_mark.zip");
+	}
+
+	private static String removeGzipExtension(String fileName) {
+		if (!fileName.toLowerCase().endsWith(".gz")) {
+			return fileName;
+		}
+		fileName = fileName.substring(0, fileName.length() - 3);
+		return StringUtils.getFilenameExtension(fileName) == null ? fileName + ".ris" : fileName;
+	}
+
 	/*
 	 * From: https://www.baeldung.com/java-convert-roman-arabic
 	 */
@@ -0,0 +1,146 @@
+package edu.dedupendnote.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.jspecify.annotations.Nullable;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import lombok.extern.slf4j.Slf4j;
+
+// @formatter:off
+/*
+ * Out-of-core mode of DeduplicationService (property spill-dir): the bibliographicItems are written to a run file
+ * per publication year while the input file is read (IOService::readBibliographicItems), in the format of
+ * BibliographicItemSnapshot. Only a light copy stays on the heap (see light(...)): the fields for the year sets,
+ * DuplicateListEnrichment and the writers, without the fields which are only used in the comparisons (the
+ * titles except the first one, the journals, ISBNs and ISSNs).
+ *
+ * DeduplicationService::searchYearOneFile loads the bibliographicItems of a year set (2 adjacent years and year 0)
+ * from the run files. The peak memory is the light copies + the largest pair of years, instead of all
+ * bibliographicItems.
+ *
+ * The run files are in a temporary directory in the spill directory, which is deleted by close().
+ */
+// @formatter:on
+@Slf4j
+final class YearPartitions implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 13;
+
+	private final Path directory;
+	private final Map<Integer, DataOutputStream> runs = new HashMap<>();
+	private final Map<Integer, Integer> sizes = new HashMap<>();
+	/*
+	 * The keys of the spilled bibliographicItems, in the order in which they were read: the light copies don't have
+	 * all the fields of ExactDuplicates::key
+	 */
+	private final List<ExactDuplicates.@Nullable Key> exactDuplicateKeys = new ArrayList<>();
+
+	YearPartitions(Path spillDirectory) throws IOException {
+		Files.createDirectories(spillDirectory);
+		this.directory = Files.createTempDirectory(spillDirectory, "years");
+	}
+
+	/*
+	 * Writes bibliographicItem to the run file of its year, and returns the light copy
+	 */
+	BibliographicItem spill(BibliographicItem bibliographicItem) throws IOException {
+		DataOutputStream out = runs.get(bibliographicItem.getPublicationYear());
+		if (out == null) {
+			out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(runPath(bibliographicItem.getPublicationYear())), BUFFER_SIZE));
+			runs.put(bibliographicItem.getPublicationYear(), out);
+		}
+		BibliographicItemSnapshot.writeItem(out, bibliographicItem);
+		sizes.merge(bibliographicItem.getPublicationYear(), 1, Integer::sum);
+		exactDuplicateKeys.add(ExactDuplicates.key(bibliographicItem));
+		return light(bibliographicItem);
+	}
+
+	List<ExactDuplicates.@Nullable Key> getExactDuplicateKeys() {
+		return exactDuplicateKeys;
+	}
+
+	/*
+	 * The bibliographicItems of year, in the order in which they were read
+	 */
+	List<BibliographicItem> load(int year) {
+		DataOutputStream out = runs.get(year);
+		if (out == null) {
+			return new ArrayList<>();
+		}
+		int size = sizes.getOrDefault(year, 0);
+		List<BibliographicItem> bibliographicItems = new ArrayList<>(size);
+		try {
+			out.flush();
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Files.newInputStream(runPath(year)), BUFFER_SIZE))) {
+				for (int i = 0; i < size; i++) {
+					bibliographicItems.add(BibliographicItemSnapshot.readItem(in));
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("The bibliographic items of " + year + " could not be read from "
+					+ runPath(year), e);
+		}
+		return bibliographicItems;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (DataOutputStream out : runs.values()) {
+			out.close();
+		}
+		for (Integer year : runs.keySet()) {
+			Files.deleteIfExists(runPath(year));
+		}
+		Files.deleteIfExists(directory);
+		log.debug("Deleted the run files of {} years in {}", runs.size(), directory);
+	}
+
+	private Path runPath(int year) {
+		return directory.resolve(year + ".run");
+	}
+
+	/*
+	 * Only titles.getFirst() is used after the comparisons (DuplicateListEnrichment). allAuthors is used by the
+	 * writers (isEmpty()).
+	 */
+	private static BibliographicItem light(BibliographicItem bibliographicItem) {
+		BibliographicItem light = new BibliographicItem();
+		light.setId(bibliographicItem.getId());
+		light.setPublicationYear(bibliographicItem.getPublicationYear());
+		light.setClinicalTrialGov(bibliographicItem.isClinicalTrialGov());
+		light.setCochrane(bibliographicItem.isCochrane());
+		light.setKeptBibliographicItem(bibliographicItem.isKeptBibliographicItem());
+		light.setPhase(bibliographicItem.isPhase());
+		light.setPresentInOldFile(bibliographicItem.isPresentInOldFile());
+		light.setReply(bibliographicItem.isReply());
+		light.setSeveralPages(bibliographicItem.isSeveralPages());
+		light.setClusterId(bibliographicItem.getClusterId());
+		light.setPageStart(bibliographicItem.getPageStart());
+		light.setPagesOutput(bibliographicItem.getPagesOutput());
+		light.setReferenceType(bibliographicItem.getReferenceType());
+		light.setTitle(bibliographicItem.getTitle());
+		light.setAllAuthors(bibliographicItem.getAllAuthors());
+		light.setDois(bibliographicItem.getDois());
+		if (!bibliographicItem.getTitles().isEmpty()) {
+			light.setTitles(new LinkedHashSet<>(List.of(bibliographicItem.getTitles().getFirst())));
+		}
+		light.freeze();
+		return light;
+	}
+}
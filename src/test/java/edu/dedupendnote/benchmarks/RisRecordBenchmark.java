@@ -0,0 +1,174 @@
+package edu.dedupendnote.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import edu.dedupendnote.services.IOService;
+import edu.dedupendnote.services.RisRecord;
+
+/*
+ * Compares the serialization of RIS records with RisRecord (IOService) with the former TreeMap serializer.
+ * Both serializers get the same lines (already split into field name and content) and write to a Writer which counts
+ * the characters, so that only collecting the fields and writing them is measured.
+ *
+ * Run with "mvn test-compile" and then:
+ * 		java -cp target/test-classes:target/classes:<test classpath> edu.dedupendnote.benchmarks.RisRecordBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RisRecordBenchmark {
+
+	// @formatter:off
+	private static final String RECORD = """
+			TY  - JOUR
+			AB  - Background: Portal vein thrombosis is a frequent complication of cirrhosis.
+			Methods: We included 100 patients.
+			Results: Anticoagulation was safe.
+			AD  - Department of Hepatology, University Hospital, Leuven, Belgium
+			AN  - 32145678
+			AU  - Smith, J.
+			AU  - Jones, K.
+			AU  - Peeters, M.
+			AU  - Janssens, L.
+			C7  - e12345
+			DA  - Jan
+			DB  - Embase
+			DO  - 10.1016/j.jhep.2020.01.001
+			IS  - 2
+			J2  - J Hepatol
+			KW  - portal vein thrombosis
+			KW  - cirrhosis
+			KW  - anticoagulation
+			LA  - English
+			M3  - Article
+			PY  - 2020
+			SN  - 0168-8278
+			SP  - 10-19
+			ST  - Portal vein thrombosis in cirrhosis
+			T2  - Journal of Hepatology
+			TI  - Portal vein thrombosis in cirrhosis
+			UR  - https://www.embase.com/search/results?id=L2004567
+			VL  - 72
+			ID  - 1
+			""";
+	// @formatter:on
+
+	private final List<String[]> lines = new ArrayList<>();
+	private final RisRecord risRecord = new RisRecord();
+
+	@Setup
+	public void setup() {
+		for (String line : RECORD.split("\n")) {
+			Matcher matcher = IOService.RIS_LINE_PATTERN.matcher(line);
+			if (matcher.matches()) {
+				lines.add(new String[] { matcher.group(1), matcher.group(3), line });
+			} else {
+				lines.add(new String[] { null, null, line });
+			}
+		}
+	}
+
+	@Benchmark
+	public void risRecord(Blackhole blackhole) throws IOException {
+		CountingWriter writer = new CountingWriter();
+		for (String[] l : lines) {
+			if (l[0] == null) {
+				risRecord.addContinuationLine(l[2]);
+			} else if ("ID".equals(l[0])) {
+				risRecord.put(RisRecord.ID, l[1]);
+				risRecord.skipContinuationLines();
+			} else {
+				risRecord.addField(RisRecord.ordinal(l[0]), l[1], l[2]);
+			}
+		}
+		risRecord.writeTo(writer, true);
+		risRecord.clear();
+		blackhole.consume(writer.count);
+	}
+
+	/*
+	 * The serializer of IOService before RisRecord
+	 */
+	@Benchmark
+	public void treeMap(Blackhole blackhole) throws IOException {
+		CountingWriter writer = new CountingWriter();
+		Map<String, String> map = new TreeMap<>();
+		String previousFieldName = "XYZ";
+		for (String[] l : lines) {
+			if (l[0] == null) {
+				map.put(previousFieldName, map.get(previousFieldName) + "\n" + l[2]);
+			} else if ("ID".equals(l[0])) {
+				map.put(l[0], l[1]);
+				previousFieldName = "XYZ";
+			} else {
+				map.merge(l[0], l[1], (v1, v2) -> v1 + "\n" + l[2]);
+				previousFieldName = l[0];
+			}
+		}
+		String skipFields = "(C7|ER|ID|TY|XYZ)";
+		StringBuilder sb = new StringBuilder();
+		sb.append("TY  - ").append(map.get("TY")).append("\n");
+		map.forEach((k, v) -> {
+			if (!k.matches(skipFields)) {
+				sb.append(k).append("  - ").append(v).append("\n");
+			}
+		});
+		sb.append("ID  - ").append(map.get("ID")).append("\n");
+		sb.append("ER  - ").append("\n\n");
+		writer.write(sb.toString());
+		blackhole.consume(writer.count);
+	}
+
+	private static class CountingWriter extends Writer {
+		long count = 0;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(String str) {
+			count += str.length();
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(RisRecordBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,85 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import edu.dedupendnote.services.ComparisonService;
+import edu.dedupendnote.services.DeduplicationService;
+import edu.dedupendnote.services.DefaultAuthorsComparisonService;
+import edu.dedupendnote.services.DefaultPagesComparisonService;
+import edu.dedupendnote.services.DefaultTitleComparisonService;
+import edu.dedupendnote.services.IOService;
+import edu.dedupendnote.services.PagesComparisonService;
+
+/*
+ * DeduplicationService::compareSet compares the starting pages and DOIs with the columns of the year set
+ * (BibliographicItemColumns) when the ComparisonService uses DefaultPagesComparisonService. With any other
+ * PagesComparisonService (here: one which calls DefaultPagesComparisonService) it compares the bibliographicItems.
+ * Both must mark the same duplicates.
+ */
+class BibliographicItemColumnsTest {
+
+	private static final String[] DOIS = { "10.1016/j.jhep.2020.01.001", "10.1016/j.jhep.2020.01.002",
+			"10.1002/14651858.cd008759", "10.1002/14651858.cd008759.pub2" };
+
+	private static final String[] PAGE_STARTS = { "10", "11", "cd008759" };
+
+	@Test
+	void compareSet_sameLabelsAsWithBibliographicItems() {
+		PagesComparisonService defaultPagesComparisonService = new DefaultPagesComparisonService();
+		PagesComparisonService delegatingPagesComparisonService = new PagesComparisonService() {
+			@Override
+			public boolean compare(BibliographicItem r1, BibliographicItem r2, Map<String, @Nullable Boolean> map) {
+				return defaultPagesComparisonService.compare(r1, r2, map);
+			}
+		};
+
+		for (long seed = 0; seed < 50; seed++) {
+			List<BibliographicItem> withColumns = randomBibliographicItems(new Random(seed));
+			List<BibliographicItem> withBibliographicItems = randomBibliographicItems(new Random(seed));
+
+			deduplicationService(defaultPagesComparisonService).compareSet(withColumns, 2021, true, message -> {});
+			deduplicationService(delegatingPagesComparisonService).compareSet(withBibliographicItems, 2021, true,
+					message -> {});
+
+			assertThat(withColumns).extracting(BibliographicItem::getClusterId)
+					.as("seed %d", seed)
+					.isEqualTo(withBibliographicItems.stream().map(BibliographicItem::getClusterId).toList());
+		}
+	}
+
+	private static DeduplicationService deduplicationService(PagesComparisonService pagesComparisonService) {
+		return new DeduplicationService(new ComparisonService(new DefaultAuthorsComparisonService(),
+				new DefaultTitleComparisonService(), (r1, r2, isSameDois) -> true, pagesComparisonService));
+	}
+
+	private static List<BibliographicItem> randomBibliographicItems(Random random) {
+		List<BibliographicItem> bibliographicItems = new ArrayList<>();
+		for (int id = 1; id <= 40; id++) {
+			BibliographicItem bibliographicItem = new BibliographicItem();
+			bibliographicItem.setId(id);
+			bibliographicItem.setPublicationYear(id <= 25 ? 2021 : 2020);
+			IOService.addNormalizedAuthor("Smith, J.", bibliographicItem);
+			IOService.fillAllAuthors(bibliographicItem);
+			IOService.addNormalizedTitle("Portal vein thrombosis in cirrhosis", bibliographicItem);
+			for (int k = random.nextInt(3); k > 0; k--) {
+				bibliographicItem.getDois().add(DOIS[random.nextInt(DOIS.length)]);
+			}
+			if (random.nextBoolean()) {
+				bibliographicItem.setPageStart(PAGE_STARTS[random.nextInt(PAGE_STARTS.length)]);
+			}
+			bibliographicItem.setCochrane(random.nextInt(4) == 0);
+			bibliographicItem.setSeveralPages(random.nextInt(4) == 0);
+			bibliographicItems.add(bibliographicItem);
+		}
+		return bibliographicItems;
+	}
+}
@@ -0,0 +1,164 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import edu.dedupendnote.services.BibliographicItemSnapshot;
+import edu.dedupendnote.services.IOService;
+
+class BibliographicItemSnapshotTest {
+
+	// @formatter:off
+	private static final String RIS = """
+			TY  - JOUR
+			AU  - Smith, J.
+			AU  - Jones, K.
+			DO  - 10.1016/J.JHEP.2020.01.001
+			DO  - 10.1016/j.jhep.2020.01.002
+			PY  - 2020
+			SN  - 0168-8278
+			SP  - 10-9
+			T2  - Journal of Hepatology
+			TI  - Portal vein thrombosis in cirrhosis: a review
+			ID  - 1
+			ER  - \n
+			TY  - JOUR
+			AU  - Anonymous
+			T2  - Cochrane Database of Systematic Reviews
+			TI  - Reply to: Portal vein thrombosis
+			ID  - 2
+			ER  - \n
+			""";
+	// @formatter:on
+
+	@TempDir
+	Path tempDir;
+
+	IOService ioService = new IOService();
+
+	@Test
+	void snapshot_roundTrip() throws IOException {
+		Path input = tempDir.resolve("old.txt");
+		Files.writeString(input, RIS);
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		byte[] contentHash = BibliographicItemSnapshot.contentHash(input);
+		Path snapshotPath = BibliographicItemSnapshot.snapshotPath(tempDir.resolve("snapshots"), contentHash);
+
+		BibliographicItemSnapshot.write(items, snapshotPath, contentHash);
+		List<BibliographicItem> loaded = BibliographicItemSnapshot.read(snapshotPath, contentHash);
+
+		assertThat(loaded).isEqualTo(items);
+		assertThat(loaded.get(0).getDois()).containsExactlyElementsOf(items.get(0).getDois());
+		assertThat(loaded.get(0).getTitles()).containsExactlyElementsOf(items.get(0).getTitles());
+	}
+
+	@Test
+	void snapshot_otherContentOrCorruptionIsIgnored() throws IOException {
+		Path input = tempDir.resolve("old.txt");
+		Files.writeString(input, RIS);
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		Path snapshotPath = BibliographicItemSnapshot.snapshotPath(tempDir.resolve("snapshots"),
+				BibliographicItemSnapshot.contentHash(input));
+		BibliographicItemSnapshot.write(items, snapshotPath, BibliographicItemSnapshot.contentHash(input));
+
+		Files.writeString(input, RIS.replace("PY  - 2020", "PY  - 2021"));
+		assertThat(BibliographicItemSnapshot.read(snapshotPath, BibliographicItemSnapshot.contentHash(input))).isNull();
+
+		Files.writeString(input, RIS);
+		byte[] bytes = Files.readAllBytes(snapshotPath);
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(snapshotPath, bytes);
+		assertThat(BibliographicItemSnapshot.read(snapshotPath, BibliographicItemSnapshot.contentHash(input))).isNull();
+	}
+
+	/*
+	 * The number of items is at offset 40 (magic, version, content hash), the length of the pageStart of the first item
+	 * at offset 57 (id, publicationYear, flags, clusterId)
+	 */
+	@Test
+	void snapshot_lengthLargerThanFileIsIgnored() throws IOException {
+		Path input = tempDir.resolve("old.txt");
+		Files.writeString(input, RIS);
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		byte[] contentHash = BibliographicItemSnapshot.contentHash(input);
+		Path snapshotPath = BibliographicItemSnapshot.snapshotPath(tempDir.resolve("snapshots"), contentHash);
+		BibliographicItemSnapshot.write(items, snapshotPath, contentHash);
+		byte[] bytes = Files.readAllBytes(snapshotPath);
+
+		for (int offset : new int[] { 40, 57 }) {
+			byte[] corrupt = bytes.clone();
+			ByteBuffer.wrap(corrupt).putInt(offset, Integer.MAX_VALUE - 8);
+			Files.write(snapshotPath, corrupt);
+			assertThat(BibliographicItemSnapshot.read(snapshotPath, contentHash)).as("offset %d", offset).isNull();
+		}
+	}
+
+	@Test
+	void readUsingSnapshot_writesAndUsesSnapshot() throws IOException {
+		Path input = tempDir.resolve("old.txt");
+		Files.writeString(input, RIS);
+		Path snapshotDirectory = tempDir.resolve("snapshots");
+
+		List<BibliographicItem> firstRun = ioService.readBibliographicItemsUsingSnapshot(input.toString(),
+				snapshotDirectory, message -> {});
+		assertThat(BibliographicItemSnapshot.snapshotPath(snapshotDirectory,
+				BibliographicItemSnapshot.contentHash(input))).exists();
+		List<BibliographicItem> secondRun = ioService.readBibliographicItemsUsingSnapshot(input.toString(),
+				snapshotDirectory, message -> {});
+
+		assertThat(secondRun).hasSize(2).isEqualTo(firstRun);
+		assertThat(input.resolveSibling(input.getFileName() + BibliographicItemSnapshot.EXTENSION)).doesNotExist();
+	}
+
+	@Test
+	void write_deletesUnusedSnapshots() throws IOException {
+		Path input = tempDir.resolve("old.txt");
+		Files.writeString(input, RIS);
+		Path snapshotDirectory = Files.createDirectories(tempDir.resolve("snapshots"));
+		Path unused = Files.writeString(snapshotDirectory.resolve("unused" + BibliographicItemSnapshot.EXTENSION), "");
+		Files.setLastModifiedTime(unused, FileTime.from(Instant.now().minus(Duration.ofDays(31))));
+		Path recent = Files.writeString(snapshotDirectory.resolve("recent" + BibliographicItemSnapshot.EXTENSION), "");
+		Path leftOver = Files.writeString(
+				snapshotDirectory.resolve("left_over" + BibliographicItemSnapshot.EXTENSION + ".1234.tmp"), "");
+		Files.setLastModifiedTime(leftOver, FileTime.from(Instant.now().minus(Duration.ofDays(31))));
+
+		ioService.readBibliographicItemsUsingSnapshot(input.toString(), snapshotDirectory, message -> {});
+
+		assertThat(unused).doesNotExist();
+		assertThat(leftOver).doesNotExist();
+		assertThat(recent).exists();
+	}
+
+	/*
+	 * The snapshot path is a directory which is not empty: the temporary file can not replace it
+	 */
+	@Test
+	void write_failedWriteLeavesNoTemporaryFile() throws IOException {
+		Path input = tempDir.resolve("old.txt");
+		Files.writeString(input, RIS);
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		byte[] contentHash = BibliographicItemSnapshot.contentHash(input);
+		Path snapshotDirectory = tempDir.resolve("snapshots");
+		Path snapshotPath = BibliographicItemSnapshot.snapshotPath(snapshotDirectory, contentHash);
+		Files.createDirectories(snapshotPath.resolve("blocker"));
+
+		assertThatThrownBy(() -> BibliographicItemSnapshot.write(items, snapshotPath, contentHash))
+				.isInstanceOf(IOException.class);
+		try (var files = Files.list(snapshotDirectory)) {
+			assertThat(files).containsExactly(snapshotPath);
+		}
+	}
+}
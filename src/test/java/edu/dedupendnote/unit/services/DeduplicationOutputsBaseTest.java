@@ -0,0 +1,204 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import edu.dedupendnote.domain.DeduplicationMode;
+import edu.dedupendnote.services.ComparisonService;
+import edu.dedupendnote.services.DeduplicationService;
+import edu.dedupendnote.services.DefaultAuthorsComparisonService;
+import edu.dedupendnote.services.DefaultJournalComparisonService;
+import edu.dedupendnote.services.DefaultPagesComparisonService;
+import edu.dedupendnote.services.DefaultTitleComparisonService;
+import edu.dedupendnote.services.PagesComparisonService;
+import edu.dedupendnote.unit.BaseTest;
+
+/*
+ * For the tests of the shortcuts of DeduplicationService (ExactDuplicates, IdentifierClusters, YearPartitions): the
+ * output files with a shortcut must be the same as without it, for SEEDS random input files (randomRis) and the modes
+ * MARK and REMOVE.
+ */
+abstract class DeduplicationOutputsBaseTest extends BaseTest {
+
+	private static final int SEEDS = 10;
+
+	private static final String[] TITLES = { "Portal vein thrombosis in cirrhosis", "Hepatocellular carcinoma screening",
+			"Transjugular intrahepatic portosystemic shunt for variceal bleeding",
+			"Nonalcoholic fatty liver disease in children" };
+
+	private static final String[] JOURNALS = { "Journal of Hepatology", "J Hepatol", "J. Hepatol." };
+
+	private static final String[] TRIAL_TITLES = { "Carvedilol in compensated cirrhosis",
+			"Propranolol versus band ligation", "Rifaximin for hepatic encephalopathy" };
+
+	private final boolean trialsAndReviews;
+	private final boolean manyYears;
+
+	@TempDir
+	Path tempDir;
+
+	DeduplicationOutputsBaseTest(boolean trialsAndReviews, boolean manyYears) {
+		this.trialsAndReviews = trialsAndReviews;
+		this.manyYears = manyYears;
+	}
+
+	@FunctionalInterface
+	interface Deduplication {
+		String deduplicate(DeduplicationService deduplicationService, String outputFileName, DeduplicationMode mode);
+	}
+
+	void assertSameOutputsOneFile(DeduplicationService expected, DeduplicationService... services) throws IOException {
+		for (long seed = 0; seed < SEEDS; seed++) {
+			assertSameOutputsOneFile("one_" + seed, randomRis(new Random(seed), trialsAndReviews, manyYears), expected,
+					services);
+		}
+	}
+
+	void assertSameOutputsOneFile(String name, String ris, DeduplicationService expected,
+			DeduplicationService... services) throws IOException {
+		Path input = tempDir.resolve(name + ".txt");
+		Files.writeString(input, ris);
+
+		assertSameOutputs(name, (deduplicationService, outputFileName, mode) -> deduplicationService
+				.deduplicateOneFile(input.toString(), outputFileName, mode, message -> {}), expected, services);
+	}
+
+	void assertSameOutputsTwoFiles(DeduplicationService expected, DeduplicationService... services)
+			throws IOException {
+		for (long seed = 0; seed < SEEDS; seed++) {
+			Random random = new Random(seed);
+			Path oldInput = tempDir.resolve("old_" + seed + ".txt");
+			Files.writeString(oldInput, randomRis(random, trialsAndReviews, manyYears));
+			Path newInput = tempDir.resolve("new_" + seed + ".txt");
+			Files.writeString(newInput, randomRis(random, trialsAndReviews, manyYears));
+
+			assertSameOutputs("two_" + seed, (deduplicationService, outputFileName,
+					mode) -> deduplicationService.deduplicateTwoFiles(newInput.toString(), oldInput.toString(),
+							outputFileName, mode, message -> {}),
+					expected, services);
+		}
+	}
+
+	private void assertSameOutputs(String name, Deduplication deduplication, DeduplicationService expected,
+			DeduplicationService... services) throws IOException {
+		for (DeduplicationMode mode : new DeduplicationMode[] { DeduplicationMode.MARK, DeduplicationMode.REMOVE }) {
+			Path expectedOutput = tempDir.resolve(name + "_expected_" + mode + ".txt");
+			String result = deduplication.deduplicate(expected, expectedOutput.toString(), mode);
+
+			assertThat(result).as("%s, %s", name, mode).doesNotStartWith("ERROR");
+			if (mode == DeduplicationMode.MARK) {
+				assertThat(Files.readString(expectedOutput)).as("%s, %s", name, mode).contains("LB  - ");
+			}
+			for (int i = 0; i < services.length; i++) {
+				Path output = tempDir.resolve(name + "_" + i + "_" + mode + ".txt");
+				deduplication.deduplicate(services[i], output.toString(), mode);
+
+				assertThat(output).as("%s, service %d, %s", name, i, mode).hasSameTextualContentAs(expectedOutput);
+			}
+		}
+	}
+
+	/*
+	 * With another PagesComparisonService (here: one which calls DefaultPagesComparisonService) DeduplicationService
+	 * does not leave the exact duplicates out of the year sets (ComparisonService::collapsesExactDuplicates)
+	 */
+	static DeduplicationService notCollapsingService() {
+		PagesComparisonService defaultPagesComparisonService = new DefaultPagesComparisonService();
+		return new DeduplicationService(new ComparisonService(new DefaultAuthorsComparisonService(),
+				new DefaultTitleComparisonService(), new DefaultJournalComparisonService(),
+				new PagesComparisonService() {
+					@Override
+					public boolean compare(BibliographicItem r1, BibliographicItem r2,
+							Map<String, @Nullable Boolean> map) {
+						return defaultPagesComparisonService.compare(r1, r2, map);
+					}
+				}));
+	}
+
+	/*
+	 * The versions of an article in several databases (other journal names, with or without pages, an "ahead of print"
+	 * year), replies with the DOI of the article, and a second search which repeats some of these records exactly (with
+	 * another ID). If trialsAndReviews: also the versions of a Cochrane review in the same and in other years (some
+	 * without DOI), and the records of trials from ClinicalTrials.gov with and without the title of the trial (some
+	 * without NCT ID). If manyYears: the articles are spread over 2015-2020 and some have no publication year.
+	 *
+	 * The titles and the authors are chosen so that compareSet does not chain the versions of different articles
+	 * into 1 duplicate list: the order of the comparisons would then decide the labels.
+	 */
+	private static String randomRis(Random random, boolean trialsAndReviews, boolean manyYears) {
+		List<String> records = new ArrayList<>();
+		for (int i = 0; i < 60; i++) {
+			int t = random.nextInt(TITLES.length + (trialsAndReviews ? 2 : 0));
+			if (t == TITLES.length) {
+				records.add(cochraneReview(random));
+			} else if (t == TITLES.length + 1) {
+				records.add(trial(random, i));
+			} else {
+				records.add(article(random, t, manyYears));
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		int id = 1;
+		for (String record : records) {
+			sb.append(record).append("ID  - ").append(id++).append("\nER  - \n\n");
+		}
+		for (int i = 0; i < 20; i++) {
+			sb.append(records.get(random.nextInt(records.size()))).append("ID  - ").append(id++).append("\nER  - \n\n");
+		}
+		return sb.toString();
+	}
+
+	private static String article(Random random, int t, boolean manyYears) {
+		StringBuilder sb = new StringBuilder("TY  - JOUR\n");
+		sb.append("AU  - ").append(t % 2 == 0 ? "Smith, J." : "Jones, K.").append('\n');
+		sb.append("DO  - 10.1016/j.jhep.2020.0").append(t).append('\n');
+		if (!manyYears) {
+			sb.append("PY  - ").append(random.nextInt(5) == 0 ? 2021 : 2020).append('\n');
+		} else if (random.nextInt(4) > 0) {
+			sb.append("PY  - ").append(2015 + random.nextInt(6)).append('\n');
+		}
+		if (random.nextBoolean()) {
+			sb.append("SP  - ").append(100 + t).append('\n');
+		}
+		sb.append("T2  - ").append(JOURNALS[random.nextInt(JOURNALS.length)]).append('\n');
+		sb.append("TI  - ").append(random.nextInt(6) == 0 ? "Reply to: " : "").append(TITLES[t]).append('\n');
+		return sb.toString();
+	}
+
+	private static String cochraneReview(Random random) {
+		int update = random.nextInt(3);
+		StringBuilder sb = new StringBuilder("TY  - JOUR\n");
+		sb.append("AU  - Smith, J.\n");
+		if (random.nextInt(4) > 0) {
+			sb.append("DO  - 10.1002/14651858.CD001234.pub").append(update + 1).append('\n');
+		}
+		sb.append("PY  - ").append(2018 + update / 2).append('\n');
+		sb.append("SP  - CD001234\n");
+		sb.append("T2  - Cochrane Database of Systematic Reviews\n");
+		sb.append("TI  - Beta-blockers for portal hypertension\n");
+		return sb.toString();
+	}
+
+	private static String trial(Random random, int i) {
+		int trial = random.nextInt(TRIAL_TITLES.length);
+		StringBuilder sb = new StringBuilder("TY  - JOUR\n");
+		sb.append("PY  - ").append(random.nextInt(4) == 0 ? 2021 : 2020).append('\n');
+		sb.append(random.nextBoolean() ? "T2  - " : "UR  - ")
+				.append(random.nextInt(8) > 0 ? "https://clinicaltrials.gov/show/NCT0123456" + trial
+						: "https://clinicaltrials.gov/ct2/results")
+				.append('\n');
+		sb.append("TI  - ").append(random.nextBoolean() ? TRIAL_TITLES[trial] : "A randomized trial " + i).append('\n');
+		return sb.toString();
+	}
+}
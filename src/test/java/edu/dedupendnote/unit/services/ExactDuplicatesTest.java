@@ -0,0 +1,79 @@
+package edu.dedupendnote.unit.services;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import edu.dedupendnote.services.ComparisonService;
+import edu.dedupendnote.services.DeduplicationService;
+
+/*
+ * With the default comparisons DeduplicationService leaves the exact duplicates (ExactDuplicates) out of the year sets
+ * and labels them afterwards. With any other PagesComparisonService all bibliographicItems are compared. Both must give
+ * the same output files, also in out-of-core mode (spill-dir). compareSet copies the label of a pivot to its
+ * duplicates, which can give another label to only 1 of 2 exact duplicates when a bibliographicItem between them in
+ * the year set is a duplicate of both with another label. ExactDuplicates gives both the same label.
+ */
+class ExactDuplicatesTest extends DeduplicationOutputsBaseTest {
+
+	// @formatter:off
+	private static final String REPLY = """
+			TY  - JOUR
+			AU  - Smith, J.
+			DO  - 10.1016/j.jhep.2020.01.001
+			PY  - 2020
+			SP  - 101
+			T2  - Gastroenterology
+			TI  - Reply to: Portal vein thrombosis in cirrhosis
+			""";
+
+	private static final String ARTICLE = """
+			TY  - JOUR
+			AU  - Smith, J.
+			DO  - 10.1016/j.jhep.2020.01.001
+			PY  - 2020
+			SP  - 101
+			T2  - J Hepatol
+			TI  - Portal vein thrombosis in cirrhosis
+			""";
+
+	private static final String OTHER_TITLE = """
+			TY  - JOUR
+			AU  - Smith, J.
+			PY  - 2020
+			SP  - 101
+			T2  - J Hepatol
+			TI  - Hepatic encephalopathy in children
+			""";
+	// @formatter:on
+
+	ExactDuplicatesTest() {
+		super(false, false);
+	}
+
+	@Test
+	void deduplicateOneFile_sameResultsAsWithoutCollapse() throws IOException {
+		DeduplicationService outOfCoreService = new DeduplicationService(new ComparisonService());
+		outOfCoreService.setSpillDirectory(tempDir.resolve("spill").toString());
+
+		assertSameOutputsOneFile(notCollapsingService(), new DeduplicationService(new ComparisonService()),
+				outOfCoreService);
+	}
+
+	/*
+	 * The second reply is an exact duplicate of the first one. Without ExactDuplicates the article (pivot) gets the reply
+	 * flag from the second reply, and then the record with the other title is a duplicate of the article (the titles
+	 * of a reply are not compared), but not of the replies (other journal, no DOI). The article must get the reply flag
+	 * also when the second reply is left out.
+	 */
+	@Test
+	void deduplicateOneFile_pivotGetsReplyOfExactDuplicateAfterIt() throws IOException {
+		String ris = REPLY + "ID  - 1\nER  - \n\n" + ARTICLE + "ID  - 2\nER  - \n\n" + REPLY + "ID  - 3\nER  - \n\n"
+				+ OTHER_TITLE + "ID  - 4\nER  - \n\n";
+		DeduplicationService outOfCoreService = new DeduplicationService(new ComparisonService());
+		outOfCoreService.setSpillDirectory(tempDir.resolve("spill").toString());
+
+		assertSameOutputsOneFile("reply_article_reply", ris, notCollapsingService(),
+				new DeduplicationService(new ComparisonService()), outOfCoreService);
+	}
+}
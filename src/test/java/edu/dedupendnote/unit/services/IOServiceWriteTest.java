@@ -0,0 +1,328 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import edu.dedupendnote.domain.DeduplicationMode;
+import edu.dedupendnote.services.IOService;
+import edu.dedupendnote.services.IOService.NumbersWritten;
+import edu.dedupendnote.services.InvalidRisFileException;
+import edu.dedupendnote.services.MemoryAdmission;
+import edu.dedupendnote.services.UploadTooLargeException;
+import edu.dedupendnote.services.UtilitiesService;
+
+/*
+ * Tests for the output of IOService: records which don't need changes are copied from the input file,
+ * the others are rewritten. Both paths must give the same output as a full rewrite.
+ * The readUpload tests check that reading an upload stream gives the same items as reading the saved file.
+ */
+class IOServiceWriteTest {
+
+	// @formatter:off
+	private static final String RECORD_1 = """
+			TY  - JOUR
+			AU  - Smith, J.
+			AU  - Jones, K.
+			PY  - 2020
+			SP  - 10-19
+			T2  - Journal of Hepatology
+			TI  - Portal vein thrombosis in cirrhosis
+			ID  - 1
+			ER  - \n
+			""";
+
+	private static final String RECORD_2 = """
+			TY  - JOUR
+			AU  - Smith, J.
+			DO  - 10.1016/J.JHEP.2020.01.001
+			PY  - 2020
+			SP  - 10-19
+			T2  - J Hepatol
+			TI  - Portal vein thrombosis in cirrhosis
+			ID  - 2
+			ER  - \n
+			""";
+	// @formatter:on
+
+	@TempDir
+	Path tempDir;
+
+	IOService ioService = new IOService();
+
+	@Test
+	void writeMarked_unchangedRecordIsCopied() throws IOException {
+		Path input = writeInput(RECORD_1 + RECORD_2);
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		Path output = tempDir.resolve("input_mark.txt");
+
+		int numberWritten = ioService.writeMarkedBibliographicItems(items, input.toString(), output.toString());
+
+		assertThat(numberWritten).isEqualTo(2);
+		assertThat(Files.readString(output)).isEqualTo(RECORD_1 + RECORD_2);
+	}
+
+	@Test
+	void writeMarked_labelReplacesInputLabel() throws IOException {
+		Path input = writeInput(RECORD_1.replace("PY  - 2020", "LB  - old label\nPY  - 2020") + RECORD_2);
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		items.forEach(item -> item.setClusterId(1));
+		Path output = tempDir.resolve("input_mark.txt");
+
+		ioService.writeMarkedBibliographicItems(items, input.toString(), output.toString());
+
+		assertThat(Files.readString(output)).isEqualTo(RECORD_1.replace("PY  - 2020", "LB  - 1\nPY  - 2020")
+				+ RECORD_2.replace("PY  - 2020", "LB  - 1\nPY  - 2020"));
+	}
+
+	@Test
+	void writeDeduplicated_onlyEnhancedRecordsAreRewritten() throws IOException {
+		Path input = writeInput(RECORD_1 + RECORD_2);
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		Path output = tempDir.resolve("input_deduplicated.txt");
+
+		int numberWritten = ioService.writeDeduplicatedBibliographicItems(items, input.toString(), output.toString());
+
+		assertThat(numberWritten).isEqualTo(2);
+		assertThat(Files.readString(output)).isEqualTo(RECORD_1
+				+ RECORD_2.replace("DO  - 10.1016/J.JHEP.2020.01.001", "DO  - https://doi.org/10.1016/j.jhep.2020.01.001"));
+	}
+
+	@Test
+	void writeDeduplicatedAndMarked_sameAsSeparateOutputs() throws IOException {
+		Path input = writeInput(RECORD_1 + RECORD_2);
+		Path deduplicated = tempDir.resolve("input_deduplicated.txt");
+		Path marked = tempDir.resolve("input_mark.txt");
+		Path separateDeduplicated = tempDir.resolve("separate_deduplicated.txt");
+		Path separateMarked = tempDir.resolve("separate_mark.txt");
+
+		NumbersWritten numbersWritten = ioService.writeDeduplicatedAndMarkedBibliographicItems(
+				readDuplicates(input), input.toString(), deduplicated.toString(), marked.toString(), item -> true);
+		ioService.writeDeduplicatedBibliographicItems(readDuplicates(input), input.toString(),
+				separateDeduplicated.toString());
+		ioService.writeMarkedBibliographicItems(readDuplicates(input), input.toString(), separateMarked.toString());
+
+		assertThat(numbersWritten).isEqualTo(new NumbersWritten(1, 2));
+		assertThat(deduplicated).hasSameTextualContentAs(separateDeduplicated);
+		assertThat(marked).hasSameTextualContentAs(separateMarked);
+		assertThat(Files.readString(marked)).isEqualTo(RECORD_1.replace("PY  - 2020", "LB  - 1\nPY  - 2020")
+				+ RECORD_2.replace("PY  - 2020", "LB  - 1\nPY  - 2020"));
+	}
+
+	/*
+	 * The kept bibliographicItem (the first of the duplicate list) is enriched with the DOI of its duplicate when it is
+	 * written
+	 */
+	@Test
+	void writeDeduplicated_keptRecordIsEnriched() throws IOException {
+		Path input = writeInput(RECORD_1 + RECORD_2);
+		List<BibliographicItem> items = readDuplicates(input);
+		Path output = tempDir.resolve("input_deduplicated.txt");
+
+		int numberWritten = ioService.writeDeduplicatedBibliographicItems(items, input.toString(), output.toString());
+
+		assertThat(numberWritten).isEqualTo(1);
+		assertThat(items).extracting(BibliographicItem::isKeptBibliographicItem).containsExactly(true, false);
+		assertThat(Files.readString(output)).startsWith("TY  - JOUR")
+				.contains("DO  - https://doi.org/10.1016/j.jhep.2020.01.001")
+				.contains("ID  - 1")
+				.doesNotContain("ID  - 2");
+	}
+
+	private List<BibliographicItem> readDuplicates(Path input) {
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		items.forEach(item -> item.setClusterId(1));
+		return items;
+	}
+
+	@Test
+	void writeMarked_crlfInputIsRewrittenWithLineFeeds() throws IOException {
+		Path input = writeInput((RECORD_1 + RECORD_2).replace("\n", "\r\n"));
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		Path output = tempDir.resolve("input_mark.txt");
+
+		ioService.writeMarkedBibliographicItems(items, input.toString(), output.toString());
+
+		assertThat(Files.readString(output)).isEqualTo(RECORD_1 + RECORD_2);
+	}
+
+	@Test
+	void writeMarked_gzipInputIsReadAndWrittenUncompressed() throws IOException {
+		Path input = tempDir.resolve("input.ris.gz");
+		try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(input))) {
+			outputStream.write((RECORD_1 + RECORD_2).getBytes(StandardCharsets.UTF_8));
+		}
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		String outputFileName = UtilitiesService.createOutputFileName(input.toString(), DeduplicationMode.MARK);
+
+		int numberWritten = ioService.writeMarkedBibliographicItems(items, input.toString(), outputFileName);
+
+		assertThat(items).hasSize(2);
+		assertThat(outputFileName).endsWith("input_mark.ris");
+		assertThat(numberWritten).isEqualTo(2);
+		assertThat(Files.readString(Path.of(outputFileName))).isEqualTo(RECORD_1 + RECORD_2);
+	}
+
+	@Test
+	void readUpload_savesInputAndGivesSameItemsAsFile() throws IOException {
+		byte[] content = ("\uFEFF" + RECORD_1 + RECORD_2).getBytes(StandardCharsets.UTF_8);
+		Path input = tempDir.resolve("upload.txt");
+		List<String> messages = new ArrayList<>();
+
+		List<BibliographicItem> items = ioService.readBibliographicItems(new ByteArrayInputStream(content),
+				content.length, Long.MAX_VALUE, input.toString(), messages::add);
+
+		assertThat(Files.readAllBytes(input)).isEqualTo(content);
+		assertThat(items).isEqualTo(ioService.readBibliographicItems(input.toString(), message -> {}));
+		assertThat(messages).last().isEqualTo("PROGRESS: 100");
+	}
+
+	@Test
+	void readUpload_gzipUploadIsSavedCompressed() throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+			outputStream.write((RECORD_1 + RECORD_2).getBytes(StandardCharsets.UTF_8));
+		}
+		Path input = tempDir.resolve("upload.ris.gz");
+
+		List<BibliographicItem> items = ioService.readBibliographicItems(
+				new ByteArrayInputStream(compressed.toByteArray()), -1, Long.MAX_VALUE, input.toString(), message -> {});
+
+		assertThat(items).hasSize(2);
+		assertThat(Files.readAllBytes(input)).isEqualTo(compressed.toByteArray());
+	}
+
+	@Test
+	void readUpload_withoutRecordsIsInvalid() {
+		byte[] content = "not a RIS file\n".getBytes(StandardCharsets.UTF_8);
+		Path input = tempDir.resolve("upload.txt");
+
+		assertThatThrownBy(() -> ioService.readBibliographicItems(new ByteArrayInputStream(content), content.length,
+				Long.MAX_VALUE, input.toString(), message -> {})).isInstanceOf(InvalidRisFileException.class);
+	}
+
+	@Test
+	void readUpload_chunkedUploadLargerThanMaximumIsStoppedAndDeleted() {
+		byte[] content = (RECORD_1 + RECORD_2).getBytes(StandardCharsets.UTF_8);
+		Path input = tempDir.resolve("upload.txt");
+
+		assertThatThrownBy(() -> ioService.readBibliographicItems(new ByteArrayInputStream(content), -1,
+				content.length - 1, input.toString(), message -> {})).isInstanceOf(UploadTooLargeException.class);
+		assertThat(input).doesNotExist();
+	}
+
+	/*
+	 * Without content length the number of records is unknown: the memory is reserved every SAMPLE_SIZE records for the
+	 * next SAMPLE_SIZE records
+	 */
+	@Test
+	void readUpload_chunkedUploadWhichDoesNotFitIsRefused() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= 3 * MemoryAdmission.SAMPLE_SIZE; i++) {
+			sb.append("TY  - JOUR\nAU  - Smith, J.\nPY  - 2020\nTI  - Portal vein thrombosis ").append(i)
+					.append("\nID  - ").append(i).append("\nER  - \n\n");
+		}
+		byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+		Path input = tempDir.resolve("upload.txt");
+		MemoryAdmission memoryAdmission = new MemoryAdmission(1 << 20, () -> 0);
+
+		try (MemoryAdmission.Reservation reservation = memoryAdmission.reserve()) {
+			assertThatThrownBy(() -> ioService.readBibliographicItems(new ByteArrayInputStream(content), -1,
+					Long.MAX_VALUE, input.toString(), message -> {}, reservation))
+					.isInstanceOf(InvalidRisFileException.class)
+					.hasMessageStartingWith("ERROR: The input file " + input + " has about "
+							+ 2 * MemoryAdmission.SAMPLE_SIZE + " bibliographic items");
+		}
+		assertThat(memoryAdmission.availableBytes()).isEqualTo(1 << 20);
+	}
+
+	@Test
+	void read_duplicateIdStopsReadingWithLineNumber() throws IOException {
+		Path input = writeInput(RECORD_1 + RECORD_2 + RECORD_1);
+
+		assertThatThrownBy(() -> ioService.readBibliographicItems(input.toString(), message -> {}))
+				.isInstanceOf(InvalidRisFileException.class)
+				.hasMessageStartingWith("ERROR: The IDs of the bibliographic items of input file " + input + " are not unique")
+				.hasMessageContaining("ID 1 on line 28 has already been used");
+	}
+
+	@Test
+	void read_missingIdCollidingWithIdIsDuplicate() throws IOException {
+		Path input = writeInput(RECORD_1.replace("ID  - 1\n", "") + RECORD_1);
+
+		assertThatThrownBy(() -> ioService.readBibliographicItems(input.toString(), message -> {}))
+				.isInstanceOf(InvalidRisFileException.class)
+				.hasMessageContaining("ID 1 on line 17 has already been used");
+	}
+
+	@Test
+	void read_idWhichIsNotANumberStopsReading() throws IOException {
+		Path input = writeInput(RECORD_1 + RECORD_2.replace("ID  - 2", "ID  - 2a"));
+
+		assertThatThrownBy(() -> ioService.readBibliographicItems(input.toString(), message -> {}))
+				.isInstanceOf(InvalidRisFileException.class)
+				.hasMessageContaining("(line 18: \"ID  - 2a\")");
+	}
+
+	@Test
+	void read_equalFieldValuesAreSharedBetweenRecords() throws IOException {
+		Path input = writeInput(RECORD_1.replace("PY  - 2020\n", "PY  - 2020\nSN  - 0168-8278\n")
+				+ RECORD_2.replace("PY  - 2020\n", "PY  - 2020\nSN  - 0168-8278 (Print)\n")
+						.replace("AU  - Smith, J.\n", "AU  - Smith, J.\nAU  - Jones, K.\n"));
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		BibliographicItem item1 = items.get(0);
+		BibliographicItem item2 = items.get(1);
+
+		assertThat(item2.getReferenceType()).isSameAs(item1.getReferenceType());
+		assertThat(item2.getPageStart()).isSameAs(item1.getPageStart());
+		assertThat(item2.getAllAuthors().getFirst()).isSameAs(item1.getAllAuthors().getFirst());
+		assertThat(item2.getTitles().getFirst()).isSameAs(item1.getTitles().getFirst());
+		assertThat(item2.getIssns().iterator().next()).isEqualTo("01688278").isSameAs(item1.getIssns().iterator().next());
+	}
+
+	/*
+	 * BibliographicItem::freeze: the fields only used while reading are dropped, the empty collections are shared, the
+	 * journals are the Set of the NormalizationCache. The collections can't be changed after reading.
+	 */
+	@Test
+	void read_collectionsAreCompactedAfterReading() throws IOException {
+		Path input = writeInput(RECORD_1 + RECORD_2.replace("SP  - 10-19\n", "").replace("T2  - J Hepatol\n",
+				"T2  - Journal of Hepatology\n"));
+		List<BibliographicItem> items = ioService.readBibliographicItems(input.toString(), message -> {});
+		BibliographicItem item1 = items.get(0);
+		BibliographicItem item2 = items.get(1);
+
+		assertThat(item1.getAuthors()).isEmpty();
+		assertThat(item1.getAuthorsTransposed()).isEmpty();
+		assertThat(item1.getPagesInput()).isNull();
+		assertThat(item1.getAllAuthors()).containsExactly("Smith J; Jones K");
+		assertThat(item1.getDois()).isEmpty();
+		assertThat(item1.getDois()).isSameAs(item2.getIsbns()).isSameAs(item2.getIssns());
+		assertThat(item2.getJournals()).isNotEmpty().isSameAs(item1.getJournals());
+		assertThat(item2.getDois()).containsExactly("10.1016/j.jhep.2020.01.001");
+		assertThatThrownBy(() -> item1.getAllAuthors().add("Peeters M"))
+				.isInstanceOf(UnsupportedOperationException.class);
+		assertThatThrownBy(() -> item1.getJournals().add("other journal"))
+				.isInstanceOf(UnsupportedOperationException.class);
+	}
+
+	private Path writeInput(String content) throws IOException {
+		Path input = tempDir.resolve("input.txt");
+		Files.writeString(input, content);
+		return input;
+	}
+}
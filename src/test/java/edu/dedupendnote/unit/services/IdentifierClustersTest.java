@@ -0,0 +1,37 @@
+package edu.dedupendnote.unit.services;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import edu.dedupendnote.services.DeduplicationService;
+
+/*
+ * With nct-cochrane-clusters and doi-clusters DeduplicationService compares only the first bibliographicItem of the
+ * bibliographicItems with the same NCT ID, Cochrane DOI or DOI which are duplicates of it (IdentifierClusters) in the
+ * year sets, and labels the others afterwards. For these bibliographicItems the results must be the same as without
+ * IdentifierClusters, for 1 and for 2 files. The exact duplicates are not left out (notCollapsingService).
+ */
+class IdentifierClustersTest extends DeduplicationOutputsBaseTest {
+
+	IdentifierClustersTest() {
+		super(true, false);
+	}
+
+	@Test
+	void deduplicateOneFile_sameResultsAsWithoutClusters() throws IOException {
+		assertSameOutputsOneFile(notCollapsingService(), clusteringService());
+	}
+
+	@Test
+	void deduplicateTwoFiles_sameResultsAsWithoutClusters() throws IOException {
+		assertSameOutputsTwoFiles(notCollapsingService(), clusteringService());
+	}
+
+	private static DeduplicationService clusteringService() {
+		DeduplicationService deduplicationService = notCollapsingService();
+		deduplicationService.setNctCochraneClusters(true);
+		deduplicationService.setDoiClusters(true);
+		return deduplicationService;
+	}
+}
@@ -0,0 +1,80 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.text.similarity.JaroWinklerSimilarity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import edu.dedupendnote.services.JaroWinkler;
+
+/*
+ * JaroWinkler must give exactly the same results as JaroWinklerSimilarity of Apache Commons Text
+ */
+class JaroWinklerTest {
+
+	private static final JaroWinklerSimilarity JWS = new JaroWinklerSimilarity();
+
+	@ParameterizedTest(name = "{index}: similarity({0}, {1})")
+	@CsvSource(value = { "'', ''", "'', a", "a, ''", "a, a", "a, b", "martha, marhta", "dixon, dicksonx", "jellyfish, smellyfish",
+			"abcd, abce", "smith j; jones k, smith j; jones k; peeters m", "smith j; jones k, jones k; smith j",
+			"portal vein thrombosis in cirrhosis, portal vein thrombosis in liver cirrhosis",
+			"journal of hepatology, j hepatol", "aaaa, aaab", "ab, ba", "abcdefgh, hgfedcba" })
+	void similarity_sameAsCommonsText(String first, String second) {
+		assertThat(JaroWinkler.similarity(first, second)).isEqualTo(JWS.apply(first, second));
+	}
+
+	@Test
+	void similarity_sameAsCommonsTextForRandomStrings() {
+		Random random = new Random(42);
+		List<String> differences = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			String first = randomString(random);
+			String second = random.nextInt(4) == 0 ? mutate(first, random) : randomString(random);
+			if (JaroWinkler.similarity(first, second) != JWS.apply(first, second)) {
+				differences.add(first + " | " + second);
+			}
+			int length = Math.min(first.length(), second.length()) - 1;
+			if (length >= 1 && JaroWinkler.similarity(first, second, length) != JWS
+					.apply(first.substring(0, length), second.substring(0, length))) {
+				differences.add(first + " | " + second + " | " + length);
+			}
+		}
+		assertThat(differences).isEmpty();
+	}
+
+	/*
+	 * The match flags of the thread are reused: a long comparison must not influence a following short one
+	 */
+	@Test
+	void similarity_matchFlagsAreCleared() {
+		String longString = "a".repeat(1000);
+		assertThat(JaroWinkler.similarity(longString, longString + "b")).isEqualTo(JWS.apply(longString, longString + "b"));
+		assertThat(JaroWinkler.similarity("abc", "cab")).isEqualTo(JWS.apply("abc", "cab"));
+	}
+
+	private static String randomString(Random random) {
+		int length = random.nextInt(30);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append("abcde fgh".charAt(random.nextInt(9)));
+		}
+		return sb.toString();
+	}
+
+	private static String mutate(String s, Random random) {
+		StringBuilder sb = new StringBuilder(s);
+		for (int k = random.nextInt(4); k >= 0 && sb.length() > 1; k--) {
+			int i = random.nextInt(sb.length() - 1);
+			char c = sb.charAt(i);
+			sb.setCharAt(i, sb.charAt(i + 1));
+			sb.setCharAt(i + 1, c);
+		}
+		return sb.toString();
+	}
+}
@@ -64,6 +64,30 @@ class JournalsNormalizationServiceTest {
 				"Rinsho ketsueki The Japanese journal of clinical hematology"));
 	}
 
+	/*
+	 * The normalized journals are only added to the Set of journals when getJournals() is called, in the order in
+	 * which they were read. The iteration order must be the same as when they are added immediately.
+	 */
+	@Test
+	void pendingJournals_sameAsAddedImmediately() {
+		List<String> inputs = List.of("Zhonghua wai ke za zhi [Chinese journal of surgery]",
+				"BJOG: An International Journal of Obstetrics and Gynaecology", "Clin. Med. J. R. Coll. Phys. Lond.");
+		BibliographicItem pending = new BibliographicItem();
+		BibliographicItem immediately = new BibliographicItem();
+		for (String input : inputs) {
+			pending.addJournals(JournalsNormalizationService.normalizeInputJournals(input, "T2"));
+			immediately.getJournals().addAll(JournalsNormalizationService.normalizeInputJournals(input, "T2"));
+		}
+
+		assertThat(pending.hasJournalIn(Set.of("BJOG"))).isTrue();
+		assertThat(pending.hasJournalIn(Set.of("Surgery"))).isFalse();
+		assertThat(pending.getJournals()).containsExactlyElementsOf(immediately.getJournals());
+
+		pending.addJournals(JournalsNormalizationService.normalizeInputJournals("Surgery", "T2"));
+		assertThat(pending.hasJournalIn(Set.of("Surgery"))).isTrue();
+		assertThat(pending.getJournals()).contains("Surgery");
+	}
+
 	static Stream<Arguments> journalArgumentProvider() {
 		// @formatter:off
 		return Stream.of(
@@ -0,0 +1,131 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import edu.dedupendnote.domain.BibliographicItem;
+import edu.dedupendnote.services.IOService;
+import edu.dedupendnote.services.InvalidRisFileException;
+import edu.dedupendnote.services.MemoryAdmission;
+
+class MemoryAdmissionTest {
+
+	@Test
+	void estimateBytes_growsWithNumberOfItemsAndFieldSizes() {
+		List<BibliographicItem> shortSample = sample("Short title", 10);
+		List<BibliographicItem> longSample = sample("A much longer title ".repeat(20), 10);
+
+		long estimate = MemoryAdmission.estimateBytes(shortSample, 1_000_000);
+
+		assertThat(estimate).isGreaterThan(500L * 1_000_000);
+		assertThat(MemoryAdmission.estimateBytes(shortSample, 2_000_000)).isEqualTo(2 * estimate);
+		assertThat(MemoryAdmission.estimateBytes(longSample, 1_000_000)).isGreaterThan(estimate);
+		assertThat(MemoryAdmission.estimateBytes(List.of(), 1_000_000)).isZero();
+	}
+
+	@Test
+	void estimateBytes_countsJournalsIssnsAndIsbns() {
+		List<BibliographicItem> sample = sample("Short title", 10);
+		long estimate = MemoryAdmission.estimateBytes(sample, 1_000_000);
+		for (BibliographicItem bibliographicItem : sample) {
+			bibliographicItem.setJournals(Set.of("journal of hepatology", "j hepatol"));
+			bibliographicItem.setIssns(Set.of("01688278"));
+			bibliographicItem.setIsbns(Set.of("9780123456789"));
+		}
+
+		assertThat(MemoryAdmission.estimateBytes(sample, 1_000_000)).isGreaterThan(estimate);
+	}
+
+	@Test
+	void admit_refusesFileWhichDoesNotFit() {
+		List<BibliographicItem> sample = sample("Portal vein thrombosis in cirrhosis", 10);
+		long needed = MemoryAdmission.estimateBytes(sample, 1_000_000);
+
+		try (MemoryAdmission.Reservation reservation = new MemoryAdmission(needed + 100, () -> 100).reserve()) {
+			assertThatCode(() -> reservation.admit("big.ris", sample, 1_000_000)).doesNotThrowAnyException();
+		}
+		try (MemoryAdmission.Reservation reservation = new MemoryAdmission(needed + 99, () -> 100).reserve()) {
+			assertThatThrownBy(() -> reservation.admit("big.ris", sample, 1_000_000))
+					.isInstanceOf(InvalidRisFileException.class)
+					.hasMessageStartingWith("ERROR: The input file big.ris has about 1000000 bibliographic items")
+					.hasMessageContaining("Please try again later");
+		}
+	}
+
+	@Test
+	void admit_memoryIsReservedUntilTheReservationIsClosed() {
+		List<BibliographicItem> sample = sample("Portal vein thrombosis in cirrhosis", 10);
+		long needed = MemoryAdmission.estimateBytes(sample, 1_000_000);
+		MemoryAdmission memoryAdmission = new MemoryAdmission(needed * 3 / 2, () -> 0);
+
+		MemoryAdmission.Reservation first = memoryAdmission.reserve();
+		first.admit("first.ris", sample, 1_000_000);
+
+		assertThat(memoryAdmission.availableBytes()).isEqualTo(needed / 2);
+		try (MemoryAdmission.Reservation second = memoryAdmission.reserve()) {
+			assertThatThrownBy(() -> second.admit("second.ris", sample, 1_000_000))
+					.isInstanceOf(InvalidRisFileException.class);
+		}
+		first.close();
+		try (MemoryAdmission.Reservation second = memoryAdmission.reserve()) {
+			assertThatCode(() -> second.admit("second.ris", sample, 1_000_000)).doesNotThrowAnyException();
+		}
+		assertThat(memoryAdmission.availableBytes()).isEqualTo(needed * 3 / 2);
+	}
+
+	@Test
+	void admit_onlyTheIncreaseOfTheNumberOfItemsOfAFileIsChecked() {
+		List<BibliographicItem> sample = sample("Portal vein thrombosis in cirrhosis", 10);
+		long needed = MemoryAdmission.estimateBytes(sample, 1_000_000);
+		MemoryAdmission memoryAdmission = new MemoryAdmission(needed * 3 / 2, () -> 0);
+
+		try (MemoryAdmission.Reservation reservation = memoryAdmission.reserve()) {
+			reservation.admit("upload.ris", sample, 500_000);
+			reservation.admit("upload.ris", sample, 1_000_000);
+			reservation.admit("upload.ris", sample, 1_000_000);
+
+			assertThat(memoryAdmission.availableBytes()).isEqualTo(needed * 3 / 2 - needed);
+			assertThatThrownBy(() -> reservation.admit("upload.ris", sample, 2_000_000))
+					.isInstanceOf(InvalidRisFileException.class);
+		}
+	}
+
+	/*
+	 * The reservations include the bibliographicItems which have already been read: they are in the heap in use too
+	 */
+	@Test
+	void availableBytes_heapInUseAndReservationsAreNotAdded() {
+		List<BibliographicItem> sample = sample("Portal vein thrombosis in cirrhosis", 10);
+		long needed = MemoryAdmission.estimateBytes(sample, 1_000_000);
+		long[] used = { needed / 2 };
+		MemoryAdmission memoryAdmission = new MemoryAdmission(needed * 4, () -> used[0]);
+
+		try (MemoryAdmission.Reservation reservation = memoryAdmission.reserve()) {
+			reservation.admit("input.ris", sample, 1_000_000);
+
+			assertThat(memoryAdmission.availableBytes()).isEqualTo(needed * 3);
+			used[0] = needed * 2;
+			assertThat(memoryAdmission.availableBytes()).isEqualTo(needed * 2);
+		}
+	}
+
+	private static List<BibliographicItem> sample(String title, int size) {
+		List<BibliographicItem> sample = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			BibliographicItem bibliographicItem = new BibliographicItem();
+			IOService.addNormalizedAuthor("Smith, J.", bibliographicItem);
+			IOService.fillAllAuthors(bibliographicItem);
+			IOService.addNormalizedTitle(title, bibliographicItem);
+			bibliographicItem.freeze();
+			sample.add(bibliographicItem);
+		}
+		return sample;
+	}
+}
@@ -0,0 +1,73 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import edu.dedupendnote.domain.AuthorRecord;
+import edu.dedupendnote.domain.TitleRecord;
+import edu.dedupendnote.services.AuthorsNormalizationService;
+import edu.dedupendnote.services.JournalsNormalizationService;
+import edu.dedupendnote.services.NormalizationCache;
+import edu.dedupendnote.services.TitlesNormalizationService;
+
+class NormalizationCacheTest {
+
+	@Test
+	void sameResultsAsNormalizationServices() {
+		NormalizationCache cache = new NormalizationCache();
+		List<String> authors = List.of("Smith, J.", "Anonymous", "Van der Berg, A. B.", "Smith, J.");
+		for (String author : authors) {
+			assertThat(cache.normalizeInputAuthors(author))
+					.isEqualTo(AuthorsNormalizationService.normalizeInputAuthors(author));
+		}
+		List<String> titles = List.of("Portal vein thrombosis in cirrhosis: a review of the literature and of the guidelines",
+				"[Retracted] Portal vein thrombosis", "Not available");
+		for (String title : titles) {
+			assertThat(cache.normalizeInputTitles(title))
+					.isEqualTo(TitlesNormalizationService.normalizeInputTitles(title));
+		}
+		for (String fieldName : List.of("T2", "J2")) {
+			String journal = "Clin. Med. J. R. Coll. Phys. Lond.";
+			assertThat(cache.normalizeInputJournals(journal, fieldName))
+					.isEqualTo(JournalsNormalizationService.normalizeInputJournals(journal, fieldName));
+		}
+	}
+
+	@Test
+	void repeatedContentGetsSharedUnmodifiableResult() {
+		NormalizationCache cache = new NormalizationCache();
+		AuthorRecord author = cache.normalizeInputAuthors("Smith, J.");
+		TitleRecord title = cache.normalizeInputTitles("Portal vein thrombosis in cirrhosis");
+		Set<String> journals = cache.normalizeInputJournals("Journal of Hepatology", "T2");
+
+		assertThat(cache.normalizeInputAuthors("Smith, J.")).isSameAs(author);
+		assertThat(cache.normalizeInputTitles("Portal vein thrombosis in cirrhosis")).isSameAs(title);
+		assertThat(cache.normalizeInputJournals("Journal of Hepatology", "T2")).isSameAs(journals);
+		assertThat(cache.normalizeInputJournals("Journal of Hepatology", "J2")).isNotSameAs(journals);
+		assertThatThrownBy(() -> title.titles().add("x")).isInstanceOf(UnsupportedOperationException.class);
+		assertThatThrownBy(() -> journals.add("x")).isInstanceOf(UnsupportedOperationException.class);
+
+		assertThat(cache.hits()).isEqualTo(3);
+		assertThat(cache.misses()).isEqualTo(4);
+		assertThat(cache.hitRates()).contains("authors 1/2 (50.0%)", "J2 journals 0/1 (0.0%)");
+	}
+
+	@Test
+	void leastRecentlyUsedEntryIsRemoved() {
+		NormalizationCache cache = new NormalizationCache(2);
+		AuthorRecord a = cache.normalizeInputAuthors("Smith, A.");
+		cache.normalizeInputAuthors("Smith, B.");
+		cache.normalizeInputAuthors("Smith, A."); // B is now the least recently used
+		cache.normalizeInputAuthors("Smith, C.");
+
+		assertThat(cache.normalizeInputAuthors("Smith, A.")).isSameAs(a);
+		cache.normalizeInputAuthors("Smith, B.");
+		assertThat(cache.hits()).isEqualTo(2);
+		assertThat(cache.misses()).isEqualTo(4);
+	}
+}
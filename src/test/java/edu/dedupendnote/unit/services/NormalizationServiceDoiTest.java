@@ -3,13 +3,24 @@ package edu.dedupendnote.unit.services;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.stream.Stream;
 
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import edu.dedupendnote.domain.NormPatterns;
 import edu.dedupendnote.services.NormalizationService;
 
 class NormalizationServiceDoiTest {
@@ -22,6 +33,62 @@ class NormalizationServiceDoiTest {
 		assertThat(normalized).hasSize(numberOfDois).containsAll(dois);
 	}
 
+	@ParameterizedTest(name = "{index}: normalizeInputDois({0})")
+	@ValueSource(strings = { "10.1016/j.jpba.2015.07.002.", "10.1016/j.jpba.2015.07.002._x", "10.1016/J.JPBA.2015.07.002 [doi]",
+			"x10.1016/abc", "_10.1016/abc", "-10.1016/abc-", "10.123/abc", "10.1234567890/abc", "10.12345678901/abc",
+			"10\n1234/abc", "10x1234/abc", "10.1234/", "10.1234/-", "10.1234/(abc)", "10.1234/abc)_", "10.1234/a.10.1234/b",
+			"10.1234/abc;10.5678/DEF", "1010.1234/abc 10.1234/abc", "10.1234/abc/10.1234/abc.", "10.1234/a+b",
+			"10.1234%2Fabc", "10.1234/a&amp;b", "10.1234/caf\u00e9", "10.1234/abc\u212a", "10.12345/ABC_DEF" })
+	void normalizeInputDois_sameAsPattern(String input) {
+		input = input.replace("\\n", "\n");
+		assertThat(NormalizationService.normalizeInputDois(input)).isEqualTo(normalizeInputDoisWithPattern(input));
+	}
+
+	@Test
+	void normalizeInputDois_sameAsPatternForRandomInput() {
+		Random random = new Random(42);
+		String alphabet = "10.0123456789/-_;()<>:abcxyzABCXYZ .[]\n";
+		List<String> differences = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int j = 0; j < length; j++) {
+				if (random.nextInt(6) == 0) {
+					sb.append("10.").append(random.nextInt(100_000));
+				} else {
+					sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+				}
+			}
+			String input = sb.toString();
+			Set<String> expected = normalizeInputDoisWithPattern(input);
+			if (!NormalizationService.normalizeInputDois(input).equals(expected)) {
+				differences.add(input);
+			}
+		}
+		assertThat(differences).isEmpty();
+	}
+
+	/*
+	 * The regex version of NormalizationService::normalizeInputDois
+	 */
+	private static Set<String> normalizeInputDoisWithPattern(String doi) {
+		Set<String> dois = new HashSet<>();
+		if (doi.length() > 200) {
+			return dois;
+		}
+		try {
+			doi = URLDecoder.decode(doi, "UTF8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		doi = StringEscapeUtils.unescapeHtml4(doi);
+		Matcher matcher = NormPatterns.DOI_PATTERN.matcher(doi.toLowerCase());
+		while (matcher.find()) {
+			dois.add(matcher.group(1).replaceAll("\\.$", ""));
+		}
+		return dois;
+	}
+
 	static Stream<Arguments> argumentProvider() {
 		return Stream.of(
 				arguments("S0731-7085(15)30056-X [pii];10.1016/j.jpba.2015.07.002 [doi]", 1,
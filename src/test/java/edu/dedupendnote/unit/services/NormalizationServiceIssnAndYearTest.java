@@ -0,0 +1,116 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import edu.dedupendnote.domain.IsbnIssnRecord;
+import edu.dedupendnote.domain.NormPatterns;
+import edu.dedupendnote.services.NormalizationService;
+
+/*
+ * The scanners of NormalizationService::normalizeInputIssns and NormalizationService::normalizeInputPublicationYear
+ * must give the same results as the regex versions (below)
+ */
+class NormalizationServiceIssnAndYearTest {
+
+	@ParameterizedTest(name = "{index}: normalizeInputIssns({0})")
+	@ValueSource(strings = { "0168-8278", "0168-827x (Print)", "1873-2380 (Electronic) 0168-8278 (Linking)",
+			"978-0-12-345678-9", "0-12-345678-X", "0-12-345678-x; 9780123456789", "01688278_", "_01688278", "a0168-8278",
+			"0168-8278a", "--------", "-01688278-", "0168-8278-0168-8278", "1234567890123456789", "123456789012345678a",
+			"12345678901234567-", "0168 8278", "0168-8278ß", "ı0168-8278", "0168-8278ı", "é0168-8278" })
+	void normalizeInputIssns_sameAsPattern(String input) {
+		assertSameIssns(input);
+	}
+
+	@Test
+	void normalizeInputIssns_sameAsPatternForRandomInput() {
+		Random random = new Random(42);
+		String alphabet = "0123456789-xXaZ_ ;()";
+		List<String> differences = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(50);
+			for (int j = 0; j < length; j++) {
+				sb.append(random.nextInt(3) == 0 ? alphabet.charAt(random.nextInt(alphabet.length()))
+						: (char) ('0' + random.nextInt(10)));
+			}
+			String input = sb.toString();
+			IsbnIssnRecord expected = normalizeInputIssnsWithPattern(input);
+			IsbnIssnRecord result = NormalizationService.normalizeInputIssns(input);
+			if (!result.isbns().equals(expected.isbns()) || !result.issns().equals(expected.issns())) {
+				differences.add(input);
+			}
+		}
+		assertThat(differences).isEmpty();
+	}
+
+	@ParameterizedTest(name = "{index}: normalizeInputPublicationYear({0})")
+	@ValueSource(strings = { "2020", "2020//", "1849", "1850", "0000", "12020 2021", "202", "20201", "c2020d", "x1999",
+			"1999x", "99 2001", "Published 2019/12/01", "", "٢٠٢٠ 2021", "😀2003" })
+	void normalizeInputPublicationYear_sameAsPattern(String input) {
+		assertThat(NormalizationService.normalizeInputPublicationYear(input))
+				.isEqualTo(normalizeInputPublicationYearWithPattern(input));
+	}
+
+	@Test
+	void normalizeInputPublicationYear_sameAsPatternForRandomInput() {
+		Random random = new Random(42);
+		List<String> differences = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(12);
+			for (int j = 0; j < length; j++) {
+				sb.append(random.nextInt(4) == 0 ? "/ a-".charAt(random.nextInt(4)) : (char) ('0' + random.nextInt(10)));
+			}
+			String input = sb.toString();
+			if (!NormalizationService.normalizeInputPublicationYear(input)
+					.equals(normalizeInputPublicationYearWithPattern(input))) {
+				differences.add(input);
+			}
+		}
+		assertThat(differences).isEmpty();
+	}
+
+	private static void assertSameIssns(String input) {
+		IsbnIssnRecord expected = normalizeInputIssnsWithPattern(input);
+		IsbnIssnRecord result = NormalizationService.normalizeInputIssns(input);
+		assertThat(result.isbns()).as("ISBNs of " + input).isEqualTo(expected.isbns());
+		assertThat(result.issns()).as("ISSNs of " + input).isEqualTo(expected.issns());
+	}
+
+	private static IsbnIssnRecord normalizeInputIssnsWithPattern(String issn) {
+		Set<String> isbns = new HashSet<>();
+		Set<String> issns = new HashSet<>();
+		Matcher matcher = NormPatterns.ISSN_ISBN_PATTERN.matcher(issn.toUpperCase());
+		while (matcher.find()) {
+			String group = matcher.group(1).replace("-", "");
+			switch (group.length()) {
+			case 8 -> issns.add(group);
+			case 10 -> isbns.add(group.substring(0, 9));
+			case 13 -> isbns.add(group.substring(3, 12));
+			default -> {
+			}
+			}
+		}
+		return new IsbnIssnRecord(isbns, issns);
+	}
+
+	private static Integer normalizeInputPublicationYearWithPattern(String input) {
+		Matcher matcher = NormPatterns.PUBLICATION_YEAR_PATTERN.matcher(input);
+		if (matcher.find()) {
+			int year = Integer.parseInt(matcher.group(2));
+			return year < NormalizationService.EARLIEST_PUBLICATION_YEAR ? 0 : year;
+		}
+		return 0;
+	}
+}
@@ -3,7 +3,11 @@ package edu.dedupendnote.unit.services;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
+import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.Formatter;
+import java.util.List;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
@@ -141,6 +145,60 @@ class NormalizationServiceTextTest {
 		// @formatter:on
 	}
 
+	/*
+	 * The former regex implementations of normalizeHyphensAndWhitespace and normalizeToBasicLatin
+	 */
+	private static final Pattern DASH_PUNCTUATION_PATTERN = Pattern.compile("\\p{Pd}");
+
+	private static String regexNormalizeHyphensAndWhitespace(String s) {
+		s = DASH_PUNCTUATION_PATTERN.matcher(s).replaceAll("\u002D");
+		s = s.replace("\u2009", "");
+		return NormPatterns.UNUSUAL_WHITESPACE_PATTERN.matcher(s).replaceAll(" ");
+	}
+
+	private static String regexNormalizeToBasicLatin(String s) {
+		if (NormPatterns.NON_BASIC_LATIN_PATTERN.matcher(s).find()) {
+			s = Normalizer.normalize(s, Normalizer.Form.NFD);
+			s = NormPatterns.NON_BASIC_LATIN_PATTERN.matcher(s).replaceAll("");
+		}
+		return s;
+	}
+
+	/*
+	 * Every code point (also the unpaired surrogates), between ASCII characters, gives the same result as the regexes
+	 */
+	@Test
+	void normalizeHyphensAndWhitespace_sameAsRegexForAllCodePoints() {
+		List<String> differences = new ArrayList<>();
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+			String input = "a-" + Character.toString(codePoint) + " b";
+			if (!NormalizationService.normalizeHyphensAndWhitespace(input)
+					.equals(regexNormalizeHyphensAndWhitespace(input))) {
+				differences.add("normalizeHyphensAndWhitespace U+%04X".formatted(codePoint));
+			}
+			if (!NormalizationService.normalizeToBasicLatin(input).equals(regexNormalizeToBasicLatin(input))) {
+				differences.add("normalizeToBasicLatin U+%04X".formatted(codePoint));
+			}
+		}
+		assertThat(differences).isEmpty();
+	}
+
+	@ParameterizedTest(name = "{index}: {0}")
+	@MethodSource("argumentProvider")
+	void normalizeHyphensAndWhitespace_sameAsRegex(String input, String own, String commons) {
+		assertThat(NormalizationService.normalizeHyphensAndWhitespace(input))
+				.isEqualTo(regexNormalizeHyphensAndWhitespace(input));
+		assertThat(NormalizationService.normalizeToBasicLatin(input)).isEqualTo(regexNormalizeToBasicLatin(input));
+	}
+
+	@Test
+	void normalizeHyphensAndWhitespace_asciiInputIsReturnedUnchanged() {
+		String input = "TI  - Portal vein thrombosis (PVT) in cirrhosis: a meta-analysis";
+
+		assertThat(NormalizationService.normalizeHyphensAndWhitespace(input)).isSameAs(input);
+		assertThat(NormalizationService.normalizeToBasicLatin(input)).isSameAs(input);
+	}
+
 	@Test
 	void whiteSpaceReplacement() {
 		String input = " a\u000Ca\u00A0a\u2000a";
@@ -0,0 +1,73 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+import edu.dedupendnote.services.RisRecord;
+
+class RisRecordTest {
+
+	@Test
+	void ordinal_followsAlphabeticalOrder() {
+		assertThat(RisRecord.ordinal("A1")).isLessThan(RisRecord.ordinal("AB"));
+		assertThat(RisRecord.ordinal("T2")).isLessThan(RisRecord.ordinal("T3"));
+		assertThat(RisRecord.ordinal("T3")).isLessThan(RisRecord.ordinal("TI"));
+		assertThat(RisRecord.ordinal("TY")).isLessThan(RisRecord.ordinal("U1"));
+		assertThat(RisRecord.tag(RisRecord.ordinal("Y2"))).isEqualTo("Y2");
+		assertThat(RisRecord.ordinal("2A")).isEqualTo(-1);
+		assertThat(RisRecord.ordinal("ABC")).isEqualTo(-1);
+	}
+
+	@Test
+	void writeTo_endNoteOrder() throws IOException {
+		RisRecord risRecord = new RisRecord();
+		risRecord.addField(RisRecord.ordinal("TI"), "Title", "TI  - Title");
+		risRecord.addContinuationLine("Original title");
+		risRecord.addField(RisRecord.ordinal("AU"), "Smith, J.", "AU  - Smith, J.");
+		risRecord.addField(RisRecord.ordinal("AU"), "Jones, K.", "AU  - Jones, K.");
+		risRecord.addField(RisRecord.ordinal("C7"), "e123", "C7  - e123");
+		risRecord.addField(RisRecord.TY, "JOUR", "TY  - JOUR");
+		risRecord.addField(RisRecord.ordinal("T2"), "Journal", "T2  - Journal");
+		risRecord.put(RisRecord.ID, "12");
+		risRecord.skipContinuationLines();
+		risRecord.addContinuationLine("skipped");
+
+		StringWriter withArticleNumber = new StringWriter();
+		risRecord.writeTo(withArticleNumber, false);
+		assertThat(withArticleNumber).hasToString("""
+				TY  - JOUR
+				AU  - Smith, J.
+				AU  - Jones, K.
+				C7  - e123
+				T2  - Journal
+				TI  - Title
+				Original title
+				ID  - 12
+				ER  - \n
+				""");
+
+		StringWriter withoutArticleNumber = new StringWriter();
+		risRecord.writeTo(withoutArticleNumber, true);
+		assertThat(withoutArticleNumber.toString()).doesNotContain("C7");
+	}
+
+	@Test
+	void clear_reusesRecord() throws IOException {
+		RisRecord risRecord = new RisRecord();
+		risRecord.addField(RisRecord.TY, "JOUR", "TY  - JOUR");
+		risRecord.addField(RisRecord.ordinal("PY"), "2020", "PY  - 2020");
+		risRecord.put(RisRecord.ID, "1");
+		risRecord.clear();
+		risRecord.addField(RisRecord.TY, "BOOK", "TY  - BOOK");
+		risRecord.put(RisRecord.ID, "2");
+
+		assertThat(risRecord.contains(RisRecord.PY)).isFalse();
+		StringWriter writer = new StringWriter();
+		risRecord.writeTo(writer, true);
+		assertThat(writer).hasToString("TY  - BOOK\nID  - 2\nER  - \n\n");
+	}
+}
@@ -3,8 +3,11 @@ package edu.dedupendnote.unit.services;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.SequencedSet;
+import java.util.regex.Matcher;
 import java.util.stream.Stream;
 
 import org.assertj.core.api.SoftAssertions;
@@ -17,6 +20,7 @@ import org.junit.jupiter.params.provider.ValueSource;
 import edu.dedupendnote.services.IOService;
 import edu.dedupendnote.services.TitlesNormalizationService;
 import edu.dedupendnote.domain.BibliographicItem;
+import edu.dedupendnote.domain.NormPatterns;
 import edu.dedupendnote.domain.TitleRecord;
 
 class TitlesNormalizationServiceTest {
@@ -135,6 +139,112 @@ class TitlesNormalizationServiceTest {
 		assertThat(result).isEqualTo(expected);
 	}
 
+	@ParameterizedTest(name = "{index}: normalizeTitle({0})={1}")
+	@MethodSource("normalizeTitleArgumentProvider")
+	void normalizeTitle_sameAsPatterns(String input, String expected) {
+		assertThat(TitlesNormalizationService.normalizeTitle(input))
+				.isEqualTo(TitlesNormalizationService.normalizeTitleWithPatterns(input));
+	}
+
+	@ParameterizedTest(name = "{index}: normalizeTitle({0})")
+	@ValueSource(strings = { "Case report: a rare tumour", "Case reports. Two cases", "case 12-3: liver", "case series:x",
+			"Case report:", "The <b>liver</b> <in cirrhosis", "a <> b <<x>> c < d", "Liver [in Dutch]",
+			"[Liver] cirrhosis [in Dutch]", "Liver \\[a] [b]", "Liver [a\\b] x[]", "Liver (Chinese text)",
+			"Liver chinese text)", "Liver (author's transl)", "Liver (german) (author's transl)", "The the title",
+			"An  - analysis...", "A", "the ", "\"Quoted\" title?!\u3001", "Title\u00BF\u2019)", "Title.\n",
+			"Title.\u0085", "Title (Japanese)\r\n", "Tab\tand\u00A0space", "\uD83D\uDE00 emoji", "Ça va: l'été", "",
+			"Cafe\u0301 \u1E9B\u0323 \u212B \u0344 \uD55C\uAE00 \u037E \u1FEF", "e\u0323\u0302\u0301 A\u030A\u0323" })
+	void normalizeTitle_sameAsPatternsForEdgeCases(String input) {
+		assertThat(TitlesNormalizationService.normalizeTitle(input))
+				.isEqualTo(TitlesNormalizationService.normalizeTitleWithPatterns(input));
+	}
+
+	/*
+	 * Random titles built from fragments which the patterns act upon
+	 */
+	@Test
+	void normalizeTitle_sameAsPatternsForRandomTitles() {
+		String[] fragments = { "Liver", " ", "  ", "case ", "report", "s", "series", "12", "-", ".", ":", "[", "]",
+				"\\", "<", ">", "(", ")", "\"", "chinese", " text", "(author's transl)", "The ", "a ", "an ", "\u00E9",
+				"\u2013", "!", "?", "\u00BF", "\t", "X" };
+		Random random = new Random(42);
+		List<String> differences = new ArrayList<>();
+		for (int n = 0; n < 200_000; n++) {
+			StringBuilder sb = new StringBuilder();
+			int size = random.nextInt(12);
+			for (int i = 0; i < size; i++) {
+				sb.append(fragments[random.nextInt(fragments.length)]);
+			}
+			String input = sb.toString();
+			if (!TitlesNormalizationService.normalizeTitle(input)
+					.equals(TitlesNormalizationService.normalizeTitleWithPatterns(input))) {
+				differences.add(input);
+			}
+		}
+		assertThat(differences).isEmpty();
+	}
+
+	/*
+	 * The former loop of normalizeInputTitles with TITLE_AND_SUBTITLE_PATTERN
+	 */
+	private static List<String> normalizeSplitTitlesWithPattern(String title) {
+		List<String> normalizedTitles = new ArrayList<>();
+		String secondPart = title;
+		Matcher matcher;
+		while ((matcher = NormPatterns.TITLE_AND_SUBTITLE_PATTERN.matcher(secondPart)).find()) {
+			String firstPart = matcher.group(1);
+			secondPart = matcher.group(2);
+			List<String> parts = firstPart.toLowerCase().endsWith("vs") ? List.of(firstPart + " " + secondPart)
+					: List.of(firstPart, secondPart);
+			for (String part : parts) {
+				String normalized = TitlesNormalizationService.normalizeTitleWithPatterns(part);
+				if (!normalized.isBlank()) {
+					normalizedTitles.add(normalized);
+				}
+			}
+		}
+		return normalizedTitles;
+	}
+
+	@ParameterizedTest(name = "{index}: normalizeSplitTitles({0})")
+	@ValueSource(strings = {
+			"Severe deficiency of the specific von Willebrand factor-cleaving protease: ADAMTS 13 activity in a subgroup of children with atypical hemolytic uremic syndrome",
+			"Liver transplantation in adults vs: children with acute liver failure: a retrospective study over 20 years",
+			"Liver transplantation in adults. Children with acute liver failure? A retrospective study; over 20 years of follow-up in 3 centers",
+			"Case report: a rare tumour of the liver in a young adult. Review of the literature of the last 20 years (Chinese text)",
+			"Short: title", "A title with a separator at the end which has a second part that is just too short: 39 characters.",
+			"Hépatite auto-immune de l'enfant: étude rétrospective multicentrique de 100 patients suivis pendant 20 ans",
+			"Title with a\nline terminator which is longer than twenty: and a second part of more than forty characters",
+			"Title with an emoji \uD83D\uDE00 which is longer than 20: and a second part of more than forty characters" })
+	void normalizeSplitTitles_sameAsPattern(String input) {
+		assertThat(TitlesNormalizationService.normalizeSplitTitles(input))
+				.isEqualTo(normalizeSplitTitlesWithPattern(input));
+	}
+
+	/*
+	 * Random titles with many separators
+	 */
+	@Test
+	void normalizeSplitTitles_sameAsPatternForRandomTitles() {
+		String[] fragments = { "Liver cirrhosis", "portal vein", " ", ": ", ". ", "? ", "; ", ":", ".", " vs", "VS",
+				"Case report", "(Japanese)", "[in Dutch]", "<i>", "</i>", "\"", "-", "\u00E9t\u00E9", "\u2013", "\u00BF",
+				"The ", "an ", "12" };
+		Random random = new Random(42);
+		List<String> differences = new ArrayList<>();
+		for (int n = 0; n < 50_000; n++) {
+			StringBuilder sb = new StringBuilder();
+			int size = random.nextInt(30);
+			for (int i = 0; i < size; i++) {
+				sb.append(fragments[random.nextInt(fragments.length)]);
+			}
+			String input = sb.toString();
+			if (!TitlesNormalizationService.normalizeSplitTitles(input).equals(normalizeSplitTitlesWithPattern(input))) {
+				differences.add(input);
+			}
+		}
+		assertThat(differences).isEmpty();
+	}
+
 	static Stream<Arguments> normalizeTitleArgumentProvider() {
 		// @formatter:off
 		return Stream.of(
@@ -0,0 +1,37 @@
+package edu.dedupendnote.unit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import edu.dedupendnote.services.ComparisonService;
+import edu.dedupendnote.services.DeduplicationService;
+
+/*
+ * With a spill-dir DeduplicationService::deduplicateOneFile keeps the bibliographicItems in run files per year
+ * (YearPartitions) and loads them per year set. The results must be the same as with all bibliographicItems in memory,
+ * and the run files must be deleted afterwards.
+ */
+class YearPartitionsTest extends DeduplicationOutputsBaseTest {
+
+	YearPartitionsTest() {
+		super(false, true);
+	}
+
+	@Test
+	void deduplicateOneFile_sameResultsAsInMemoryAndRunFilesAreDeleted() throws IOException {
+		Path spillDirectory = Files.createDirectories(tempDir.resolve("spill"));
+		DeduplicationService outOfCoreService = new DeduplicationService(new ComparisonService());
+		outOfCoreService.setSpillDirectory(spillDirectory.toString());
+
+		assertSameOutputsOneFile(new DeduplicationService(new ComparisonService()), outOfCoreService);
+
+		try (var files = Files.list(spillDirectory)) {
+			assertThat(files).isEmpty();
+		}
+	}
+}
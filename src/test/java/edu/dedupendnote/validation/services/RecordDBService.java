@@ -109,8 +109,8 @@ public class RecordDBService {
 						}
 						bibliographicItem = recordIdMap.get(publicationDB.getId());
 						if (bibliographicItem != null) {
-							if (bibliographicItem.getLabel() != null) {
-								publicationDB.setDedupid(Integer.valueOf(bibliographicItem.getLabel()));
+							if (bibliographicItem.hasCluster()) {
+								publicationDB.setDedupid(bibliographicItem.getClusterId());
 							}
 							publicationDBs.add(publicationDB);
 						}